@@ -0,0 +1,184 @@
+package music;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class is a Playlist read from a csv file whose songs a PlaylistCache
+ * may drop from memory while they are not in use.
+ *
+ * getSize() always answers from the number of songs. getLast() asks the
+ * cache for the songs, which reads the file again if they were evicted.
+ * Once the playlist is changed through setLast() or setSize() its songs
+ * no longer match the file, so the cache keeps them in memory for good.
+ *
+ * PlaylistLibrary acquires a CachedPlaylist for as long as an operation
+ * walks or changes it (see acquire()), so its songs are not evicted under
+ * the operation, and marks it changed (see modifying()) before it relinks
+ * any of its SongNodes. Other code that is walking the songs when they are
+ * evicted keeps walking the old SongNodes, which stay reachable until it
+ * is done; the next getLast() returns a freshly read copy.
+ */
+public class CachedPlaylist extends Playlist {
+
+    private final PlaylistCache cache;
+    private final String filename;
+    private final LazyPlaylist.Loader loader;
+
+    // guarded by the cache
+    private boolean resident;
+    private boolean dirty;
+    private int users;
+    // the read in progress while an evicted playlist is being read again
+    private CompletableFuture<Playlist> loading;
+
+    /**
+     * @param cache the cache that manages the songs
+     * @param filename the file the songs are read from, for reports
+     * @param loader reads the songs of the file
+     * @param songs the songs already read, which become resident
+     */
+    CachedPlaylist(PlaylistCache cache, String filename, LazyPlaylist.Loader loader, Playlist songs) {
+        super(songs.getLast(), songs.getSize());
+        this.cache = cache;
+        this.filename = filename;
+        this.loader = loader;
+        this.resident = true;
+    }
+
+    /**
+     * @param cache the cache that manages the songs
+     * @param filename the file the songs are read from, for reports
+     * @param loader reads the songs of the file
+     * @param size the number of songs the loader reads; none are resident
+     */
+    CachedPlaylist(PlaylistCache cache, String filename, LazyPlaylist.Loader loader, int size) {
+        super(null, size);
+        this.cache = cache;
+        this.filename = filename;
+        this.loader = loader;
+    }
+
+    /**
+     * @return the file the songs are read from
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return true if the songs are in memory
+     */
+    public boolean isResident() {
+        synchronized (cache) {
+            return resident;
+        }
+    }
+
+    /**
+     * @return true if the playlist has been changed, so it is never evicted
+     */
+    public boolean isDirty() {
+        synchronized (cache) {
+            return dirty;
+        }
+    }
+
+    /**
+     * Keeps the songs in memory until release() is called, reading them
+     * first if they were evicted.
+     */
+    public void acquire() {
+        cache.acquire(this);
+    }
+
+    /**
+     * Ends a use begun by acquire().
+     */
+    public void release() {
+        cache.release(this);
+    }
+
+    /**
+     * Marks the playlist as changed, reading its songs first if they were
+     * evicted. Call it before changing any of its SongNodes, so they are
+     * never evicted in the middle of the change.
+     */
+    public void modifying() {
+        cache.modified(this);
+    }
+
+    @Override
+    public SongNode getLast() {
+        return cache.access(this);
+    }
+
+    @Override
+    public void setLast(SongNode last) {
+        cache.modified(this);
+        super.setLast(last);
+    }
+
+    @Override
+    public void setSize(int size) {
+        cache.modified(this);
+        super.setSize(size);
+    }
+
+    /*
+     * The methods below are called by the cache, holding its lock.
+     */
+
+    boolean resident() {
+        return resident;
+    }
+
+    boolean dirty() {
+        return dirty;
+    }
+
+    void markDirty() {
+        dirty = true;
+    }
+
+    boolean inUse() {
+        return users > 0;
+    }
+
+    void acquired() {
+        users++;
+    }
+
+    void released() {
+        users--;
+    }
+
+    SongNode last() {
+        return super.getLast();
+    }
+
+    CompletableFuture<Playlist> loading() {
+        return loading;
+    }
+
+    void setLoading(CompletableFuture<Playlist> loading) {
+        this.loading = loading;
+    }
+
+    void install(Playlist songs) {
+        super.setLast(songs.getLast());
+        super.setSize(songs.getSize());
+        resident = true;
+    }
+
+    /*
+     * Reads the songs from the file; called without the cache's lock.
+     */
+    Playlist read() {
+        return loader.load();
+    }
+
+    void evict() {
+        super.setLast(null);
+        resident = false;
+    }
+}
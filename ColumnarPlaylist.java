@@ -0,0 +1,152 @@
+package music;
+
+import java.util.Arrays;
+
+/**
+ * This class is a playlist of song ids in a SongStore.
+ *
+ * The songs are held as an int array in playlist order; the last id wraps
+ * around to the first, as the last SongNode of a Playlist points to the
+ * first. A song costs 4 bytes here, instead of a SongNode and a Song.
+ *
+ * Positions start at 1, as in PlaylistLibrary. toPlaylist() builds the
+ * Song and SongNode objects for the methods that take a Playlist.
+ */
+public class ColumnarPlaylist {
+
+    private final SongStore store;
+    private int[] ids;
+    private int size;
+
+    /**
+     * Creates an empty playlist.
+     *
+     * @param store the store that holds the songs
+     */
+    public ColumnarPlaylist(SongStore store) {
+        this.store = store;
+        this.ids = new int[8];
+    }
+
+    /**
+     * Copies a playlist into a store.
+     *
+     * @param playlist the playlist to copy
+     * @param store the store to add its songs to
+     * @return a columnar playlist with the same songs
+     */
+    public static ColumnarPlaylist of(Playlist playlist, SongStore store) {
+        ColumnarPlaylist columnar = new ColumnarPlaylist(store);
+        columnar.ids = new int[Math.max(8, playlist.getSize())];
+        PlaylistCursor.forEach(playlist, (position, song) -> columnar.ids[columnar.size++] = store.add(song));
+        return columnar;
+    }
+
+    /**
+     * @return the store that holds the songs
+     */
+    public SongStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the number of songs
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @param position from 1 to getSize()
+     * @return the store id of the song at that position
+     * @throws IndexOutOfBoundsException if the position is out of range
+     */
+    public int getSongId(int position) {
+        if (position < 1 || position > size) {
+            throw new IndexOutOfBoundsException("position " + position + " of " + size);
+        }
+        return ids[position - 1];
+    }
+
+    /**
+     * @param position from 1 to getSize()
+     * @return a Song view of the song at that position
+     * @throws IndexOutOfBoundsException if the position is out of range
+     */
+    public Song getSong(int position) {
+        return store.song(getSongId(position));
+    }
+
+    /**
+     * Adds a song to the store and inserts it at a position.
+     *
+     * @param position from 1 to getSize() + 1
+     * @param song the song to add
+     * @return true if the song has been added, false if the position is
+     * out of range
+     */
+    public boolean insertSong(int position, Song song) {
+        if (position < 1 || position > size + 1) {
+            return false;
+        }
+        return insertSongId(position, store.add(song));
+    }
+
+    /**
+     * Inserts a song that is already in the store at a position.
+     *
+     * @param position from 1 to getSize() + 1
+     * @param id the store id of the song
+     * @return true if the song has been added, false if the position is
+     * out of range
+     */
+    public boolean insertSongId(int position, int id) {
+        if (position < 1 || position > size + 1) {
+            return false;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(ids, position - 1, ids, position, size - position + 1);
+        ids[position - 1] = id;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes the song at a position. The song stays in the store.
+     *
+     * @param position from 1 to getSize()
+     * @return the store id of the removed song, or -1 if the position is
+     * out of range
+     */
+    public int removeSongAt(int position) {
+        if (position < 1 || position > size) {
+            return -1;
+        }
+        int id = ids[position - 1];
+        System.arraycopy(ids, position, ids, position - 1, size - position);
+        size--;
+        return id;
+    }
+
+    /**
+     * Builds a circular linked list of Song views of this playlist.
+     *
+     * @return a Playlist with the same songs
+     */
+    public Playlist toPlaylist() {
+        SongNode last = null;
+        for (int i = 0; i < size; i++) {
+            SongNode node = new SongNode(store.song(ids[i]), null);
+            if (last == null) {
+                node.setNext(node);
+            } else {
+                node.setNext(last.getNext());
+                last.setNext(node);
+            }
+            last = node;
+        }
+        return new Playlist(last, size);
+    }
+}
@@ -0,0 +1,772 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
+
+/**
+ * This class is a PlaylistLibrary that can be used from many threads at
+ * once.
+ *
+ * Two levels of read/write locks protect it:
+ *
+ *  - the library lock guards the songLibrary list itself. Methods that
+ *    add, remove or replace playlists (addPlaylist(), removePlaylist(),
+ *    mergePlaylists(), ...) hold its write lock; every other method holds
+ *    its read lock, so playlist indices cannot shift under them.
+ *
+ *  - a fixed array of striped locks guards the playlists. A playlist maps
+ *    to a stripe by its identity hash. Methods that edit one playlist
+ *    (insertSong(), removeSong(), reversePlaylist(), ...) hold the write
+ *    lock of its stripe, and methods that only read it (printPlaylist(),
+ *    getSong(), ...) hold the read lock.
+ *
+ * Edits to playlists on different stripes therefore run in parallel.
+ * Locks are always taken library lock first, then a single stripe, so
+ * they cannot deadlock. With a playlist cache, a CachedPlaylist is also
+ * acquired while its stripe lock is held, so playlists read on other
+ * threads cannot evict it in the middle of an edit.
+ *
+ * The methods that only read a playlist (getSong(), forEachSong(),
+ * stream(), snapshot(), printPlaylist(), playPlaylist(), ...) take no lock
+ * at all. Each slot of the library publishes the current version of its
+ * playlist as a PersistentPlaylist in a VersionedPlaylist, and readers
+ * read that immutable version, so they never wait for a writer and never
+ * see a half-relinked ring. The version is built under the playlist's
+ * read lock by the first read that needs it. After that, every edit
+ * publishes the next version under the playlist's write lock: insertSong(),
+ * removeSong() and removeSongAt() in O(logn) time, and edits that already
+ * walk the whole playlist by rebuilding it. The list of slots itself is
+ * republished, copy-on-write, whenever playlists are added, removed or
+ * replaced.
+ *
+ * getPlaylists() returns the underlying list and is not protected; use
+ * read() to look at a playlist safely.
+ */
+public class ConcurrentPlaylistLibrary extends PlaylistLibrary {
+
+    private static final int STRIPES = 64;
+
+    private final ReentrantReadWriteLock libraryLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[STRIPES];
+
+    // the playlists of the library in order, with their published
+    // versions; replaced under the library write lock and read without
+    // any lock
+    private volatile Slot[] slots = new Slot[0];
+
+    /*
+     * A playlist of the library and its published version, which is null
+     * until a read first needs it.
+     */
+    private static final class Slot {
+        final Playlist playlist;
+        volatile VersionedPlaylist version;
+
+        Slot(Playlist playlist) {
+            this.playlist = playlist;
+        }
+    }
+
+    /*
+     * Builds the next published version of a playlist after an edit that
+     * returned result.
+     */
+    private interface Publisher<T> {
+        PersistentPlaylist next(PersistentPlaylist version, T result, Playlist playlist);
+    }
+
+    // publishes a copy of the whole playlist
+    private static final Publisher<Object> REBUILD = (version, result, playlist) -> PersistentPlaylist.of(playlist);
+
+    /**
+     * @param songLibrary passes in ArrayList of playlists
+     */
+    public ConcurrentPlaylistLibrary(ArrayList<Playlist> songLibrary) {
+        super(songLibrary);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+        republish();
+    }
+
+    /**
+     * Creates an empty library.
+     */
+    public ConcurrentPlaylistLibrary() {
+        this(null);
+    }
+
+    /**
+     * Runs a function on a playlist while holding its read lock, so the
+     * playlist cannot change while the function looks at it. The function
+     * must not keep references into the playlist after it returns.
+     *
+     * @param playlistIndex the playlist to read
+     * @param reader the function to run
+     * @param <T> the type of the result
+     * @return the result of the function, or null if there is no playlist
+     * at that index
+     */
+    public <T> T read(int playlistIndex, Function<Playlist, T> reader) {
+        Lock lock = libraryLock.readLock();
+        lock.lock();
+        try {
+            Playlist playlist = playlistAt(playlistIndex);
+            if (playlist == null) {
+                return null;
+            }
+            Lock stripe = stripe(playlist).readLock();
+            stripe.lock();
+            try {
+                acquire(playlist);
+                return reader.apply(playlist);
+            } finally {
+                release(playlist);
+                stripe.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Library lock write methods: they change which playlist is at which
+     * index.
+     */
+
+    @Override
+    public void setIndexed(boolean indexed) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            super.setIndexed(indexed);
+            republish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setReversible(boolean reversible) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            super.setReversible(reversible);
+            republish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setSongIndexed(boolean songIndexed) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            super.setSongIndexed(songIndexed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setQueryIndexed(boolean queryIndexed) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            super.setQueryIndexed(queryIndexed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void addPlaylist(String filename, int playlistIndex) {
+        Playlist playlist = createPlaylist(filename);
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            if (getPlaylists() == null) {
+                super.setPlaylists(new ArrayList<Playlist>());
+            }
+            insertAt(playlist, playlistIndex);
+            republish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removePlaylist(int playlistIndex) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            boolean removed = super.removePlaylist(playlistIndex);
+            republish();
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the files on loader threads without holding any lock, then
+     * adds the playlists to the library under the library write lock.
+     */
+    @Override
+    public LoadReport loadAllPlaylists(String[] filenames, int threads) {
+        PlaylistLibrary staging = staging();
+        LoadReport report = staging.loadAllPlaylists(filenames, threads);
+        addStaged(staging);
+        return report;
+    }
+
+    /**
+     * Reads every file without holding any lock; only if all of them
+     * could be read are the playlists added, under the library write lock.
+     */
+    @Override
+    public void addAllPlaylists(String[] filenames) {
+        PlaylistLibrary staging = staging();
+        staging.addAllPlaylists(filenames);
+        addStaged(staging);
+    }
+
+    /*
+     * Returns an empty library with the settings of this one, to read
+     * files into without holding any lock.
+     */
+    private PlaylistLibrary staging() {
+        PlaylistLibrary staging = new PlaylistLibrary();
+        staging.setErrorHandler(getErrorHandler());
+        staging.setIndexed(isIndexed());
+        staging.setReversible(isReversible());
+        staging.setSongRegistry(getSongRegistry());
+        staging.setPlaylistCache(getPlaylistCache());
+        staging.setMetrics(getMetrics());
+        staging.setParallel(getParallelPool(), getParallelThreshold());
+        return staging;
+    }
+
+    /*
+     * Adds the playlists of a staging library so its playlist i ends up
+     * at index i.
+     */
+    private void addStaged(PlaylistLibrary staging) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            if (getPlaylists() == null) {
+                super.setPlaylists(new ArrayList<Playlist>());
+            }
+            ArrayList<Playlist> loaded = staging.getPlaylists();
+            for (int i = 0; i < loaded.size(); i++) {
+                insertAt(loaded.get(i), i);
+            }
+            republish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds the library write lock while the file is written, so no
+     * playlist changes until every playlist has been saved.
+     */
+    @Override
+    public void saveLibrary(String filename) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            super.saveLibrary(filename);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void loadLibrary(String filename) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            super.loadLibrary(filename);
+            republish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void mergePlaylists(int playlistIndex1, int playlistIndex2) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            super.mergePlaylists(playlistIndex1, playlistIndex2);
+            republish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Playlist unionPlaylists(int... indices) {
+        return query(() -> super.unionPlaylists(indices));
+    }
+
+    @Override
+    public Playlist intersectPlaylists(int... indices) {
+        return query(() -> super.intersectPlaylists(indices));
+    }
+
+    @Override
+    public Playlist differencePlaylists(int... indices) {
+        return query(() -> super.differencePlaylists(indices));
+    }
+
+    @Override
+    public Playlist dedupPlaylist(int playlistIndex) {
+        return query(() -> super.dedupPlaylist(playlistIndex));
+    }
+
+    @Override
+    public Playlist mergeAll(int... indices) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            Playlist merged = super.mergeAll(indices);
+            republish();
+            return merged;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Playlist mergeAllToNew(int... indices) {
+        return query(() -> super.mergeAllToNew(indices));
+    }
+
+    @Override
+    public void setPlaylists(ArrayList<Playlist> p) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            super.setPlaylists(p);
+            republish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Queries: they bring the query index up to date by walking the 
+     * playlists it has not seen, so no playlist may change meanwhile.
+     */
+
+    @Override
+    public List<Song> songsByArtist(String artist) {
+        return query(() -> super.songsByArtist(artist));
+    }
+
+    @Override
+    public List<Song> songsByYear(int fromYear, int toYear) {
+        return query(() -> super.songsByYear(fromYear, toYear));
+    }
+
+    @Override
+    public List<Song> topSongs(int k) {
+        return query(() -> super.topSongs(k));
+    }
+
+    @Override
+    public List<Song> topSongs(int k, int fromYear, int toYear) {
+        return query(() -> super.topSongs(k, fromYear, toYear));
+    }
+
+    /*
+     * Stripe write methods: they edit one playlist.
+     */
+
+    /**
+     * Publishes the song as the SongRegistry canonicalizes it, if there is
+     * one, so the published version holds the same Song as the playlist.
+     */
+    @Override
+    public boolean insertSong(int playlistIndex, int position, Song song) {
+        return write(playlistIndex, false, () -> super.insertSong(playlistIndex, position, song),
+            (version, inserted, playlist) -> {
+                if (!inserted) {
+                    return version;
+                }
+                SongRegistry registry = getSongRegistry();
+                return version.insert(position, (registry == null) ? song : registry.canonical(song));
+            });
+    }
+
+    @Override
+    public boolean removeSong(int playlistIndex, Song song) {
+        return write(playlistIndex, false, () -> super.removeSong(playlistIndex, song),
+            (version, removed, playlist) -> removed ? version.remove(song) : version);
+    }
+
+    @Override
+    public boolean applyBatch(int playlistIndex, PlaylistBatch batch) {
+        return write(playlistIndex, false, () -> super.applyBatch(playlistIndex, batch), REBUILD);
+    }
+
+    @Override
+    public Song removeSongAt(int playlistIndex, int position) {
+        return write(playlistIndex, null, () -> super.removeSongAt(playlistIndex, position),
+            (version, removed, playlist) -> (removed == null) ? version : version.remove(position));
+    }
+
+    /**
+     * Publishes the reversed version in constant time, without walking
+     * the playlist, so a ReversiblePlaylist is still only relinked when
+     * next walked.
+     */
+    @Override
+    public void reversePlaylist(int playlistIndex) {
+        write(playlistIndex, null, () -> {
+            super.reversePlaylist(playlistIndex);
+            return null;
+        }, (version, result, playlist) -> version.reversed());
+    }
+
+    @Override
+    public void shufflePlaylist(int playlistIndex) {
+        write(playlistIndex, null, () -> {
+            super.shufflePlaylist(playlistIndex);
+            return null;
+        }, REBUILD);
+    }
+
+    @Override
+    public void shufflePlaylist(int playlistIndex, RandomGenerator random) {
+        write(playlistIndex, null, () -> {
+            super.shufflePlaylist(playlistIndex, random);
+            return null;
+        }, REBUILD);
+    }
+
+    @Override
+    public void weightedShufflePlaylist(int playlistIndex, RandomGenerator random) {
+        write(playlistIndex, null, () -> {
+            super.weightedShufflePlaylist(playlistIndex, random);
+            return null;
+        }, REBUILD);
+    }
+
+    @Override
+    public WeightedShuffle.Radio radio(int playlistIndex, RandomGenerator random) {
+        return read(playlistIndex, playlist -> super.radio(playlistIndex, random));
+    }
+
+    @Override
+    public void sortPlaylist(int playlistIndex, Comparator<Song> order) {
+        write(playlistIndex, null, () -> {
+            super.sortPlaylist(playlistIndex, order);
+            return null;
+        }, REBUILD);
+    }
+
+    /*
+     * Lock-free read methods: they read the published version of one
+     * playlist.
+     */
+
+    @Override
+    public Song getSong(int playlistIndex, int position) {
+        PersistentPlaylist version = version(playlistIndex);
+        return (version == null) ? null : version.get(position);
+    }
+
+    @Override
+    public void forEachSong(int playlistIndex, PlaylistCursor.Visitor visitor) {
+        PersistentPlaylist version = version(playlistIndex);
+        if (version == null) {
+            return;
+        }
+        int[] position = { 0 };
+        version.forEach(song -> visitor.visit(++position[0], song));
+    }
+
+    /**
+     * Returns a stream of the songs of a playlist as they were when it was
+     * called, read from its published version, so the stream can be
+     * consumed while other threads edit the playlist.
+     */
+    @Override
+    public Stream<Song> stream(int playlistIndex) {
+        PersistentPlaylist version = version(playlistIndex);
+        return (version == null) ? Stream.empty() : Arrays.stream(version.toArray());
+    }
+
+    @Override
+    public long getHandle(int playlistIndex) {
+        return libraryRead(() -> super.getHandle(playlistIndex));
+    }
+
+    /**
+     * Returns the current index of a playlist. Another thread may add or
+     * remove playlists as soon as this returns; call it again after a
+     * method that takes the index fails, or use getPlaylist() and hold the
+     * playlist itself.
+     */
+    @Override
+    public int indexOf(long handle) {
+        return libraryRead(() -> super.indexOf(handle));
+    }
+
+    @Override
+    public Playlist getPlaylist(long handle) {
+        return libraryRead(() -> super.getPlaylist(handle));
+    }
+
+    /**
+     * Returns the published version of the playlist, without copying it.
+     */
+    @Override
+    public PersistentPlaylist snapshot(int playlistIndex) {
+        return version(playlistIndex);
+    }
+
+    @Override
+    public void printPlaylist(int playlistIndex) {
+        PersistentPlaylist version = version(playlistIndex);
+        if (version == null) {
+            // fails the way PlaylistLibrary does for a missing playlist
+            super.printPlaylist(playlistIndex);
+            return;
+        }
+        StdOut.printf("%nPlaylist at index %d (%d song(s)):%n", playlistIndex, version.size());
+        if (version.size() == 0) {
+            StdOut.println("EMPTY");
+            return;
+        }
+        int[] position = { 0 };
+        version.forEach(song -> {
+            if (++position[0] < version.size()) {
+                StdOut.print(song.toString() + " -> ");
+            } else {
+                StdOut.print(song.toString() + " - POINTS TO FRONT");
+            }
+        });
+        StdOut.println();
+    }
+
+    /**
+     * Plays the version of the playlist published when it was called, so
+     * the playlist may be edited while it plays.
+     */
+    @Override
+    public void playPlaylist(int playlistIndex, int repeats) {
+        PersistentPlaylist version = version(playlistIndex);
+        if (version == null) {
+            super.playPlaylist(playlistIndex, repeats);
+            return;
+        }
+        ArrayList<Playlist> copy = new ArrayList<Playlist>();
+        copy.add(version.toPlaylist());
+        new PlaylistLibrary(copy).playPlaylist(0, repeats);
+    }
+
+    @Override
+    public PlaybackEngine playPlaylistAsync(int playlistIndex, int repeats, PlaybackEngine engine) {
+        PersistentPlaylist version = version(playlistIndex);
+        if (version == null) {
+            return null;
+        }
+        engine.play(Arrays.asList(version.toArray()), repeats);
+        return engine;
+    }
+
+    @Override
+    public void printLibrary() {
+        Lock lock = libraryLock.readLock();
+        lock.lock();
+        try {
+            super.printLibrary();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * An edit of one playlist.
+     */
+    private interface Edit<T> {
+        T apply();
+    }
+
+    /*
+     * Runs an edit under the library read lock and the playlist's stripe
+     * write lock, then publishes the next version of the playlist if it
+     * has one; returns missing if there is no playlist at the index.
+     */
+    private <T> T write(int playlistIndex, T missing, Edit<T> edit, Publisher<? super T> publisher) {
+        Lock lock = libraryLock.readLock();
+        lock.lock();
+        try {
+            Playlist playlist = playlistAt(playlistIndex);
+            if (playlist == null) {
+                return missing;
+            }
+            Lock stripe = stripe(playlist).writeLock();
+            stripe.lock();
+            try {
+                // another thread's loads must not evict it mid-edit
+                acquire(playlist);
+                T result = edit.apply();
+                Slot slot = slotOf(playlistIndex, playlist);
+                VersionedPlaylist version = (slot == null) ? null : slot.version;
+                if (version != null) {
+                    version.update(before -> publisher.next(before, result, playlist));
+                }
+                return result;
+            } finally {
+                release(playlist);
+                stripe.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Returns the published version of the playlist at an index without
+     * taking a lock, or null if there is no playlist at that index. The
+     * first read of a playlist builds its version under the library read
+     * lock and the playlist's read lock.
+     */
+    private PersistentPlaylist version(int playlistIndex) {
+        Slot[] current = slots;
+        if (playlistIndex < 0 || playlistIndex >= current.length) {
+            return null;
+        }
+        VersionedPlaylist version = current[playlistIndex].version;
+        if (version != null) {
+            return version.snapshot();
+        }
+
+        Lock lock = libraryLock.readLock();
+        lock.lock();
+        try {
+            // the slots cannot change while the read lock is held
+            current = slots;
+            if (playlistIndex >= current.length) {
+                return null;
+            }
+            Slot slot = current[playlistIndex];
+            Lock stripe = stripe(slot.playlist).readLock();
+            stripe.lock();
+            try {
+                acquire(slot.playlist);
+                if (slot.version == null) {
+                    slot.version = new VersionedPlaylist(PersistentPlaylist.of(slot.playlist));
+                }
+                return slot.version.snapshot();
+            } finally {
+                release(slot.playlist);
+                stripe.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Returns the slot of the playlist at an index, or null if the
+     * songLibrary was changed through getPlaylists(); the caller holds the
+     * library lock.
+     */
+    private Slot slotOf(int playlistIndex, Playlist playlist) {
+        Slot[] current = slots;
+        if (playlistIndex < current.length && current[playlistIndex].playlist == playlist) {
+            return current[playlistIndex];
+        }
+        return null;
+    }
+
+    /*
+     * Matches the slots to the songLibrary after playlists were added,
+     * removed or replaced, keeping the published versions of the playlists
+     * that are still there. The caller holds the library write lock.
+     */
+    private void republish() {
+        ArrayList<Playlist> playlists = getPlaylists();
+        IdentityHashMap<Playlist, Slot> kept = new IdentityHashMap<Playlist, Slot>();
+        for (Slot slot : slots) {
+            kept.put(slot.playlist, slot);
+        }
+        Slot[] next = new Slot[(playlists == null) ? 0 : playlists.size()];
+        for (int i = 0; i < next.length; i++) {
+            Slot slot = kept.get(playlists.get(i));
+            next[i] = (slot == null) ? new Slot(playlists.get(i)) : slot;
+        }
+        slots = next;
+    }
+
+    /*
+     * Runs a lookup under the library read lock.
+     */
+    private <T> T libraryRead(Edit<T> lookup) {
+        Lock lock = libraryLock.readLock();
+        lock.lock();
+        try {
+            return lookup.apply();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Runs a query under the library write lock. Set operations add their
+     * result to the library, so the slots are republished.
+     */
+    private <T> T query(Edit<T> query) {
+        Lock lock = libraryLock.writeLock();
+        lock.lock();
+        try {
+            T result = query.apply();
+            republish();
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Playlist playlistAt(int playlistIndex) {
+        ArrayList<Playlist> playlists = getPlaylists();
+        if (playlists == null || playlistIndex < 0 || playlistIndex >= playlists.size()) {
+            return null;
+        }
+        return playlists.get(playlistIndex);
+    }
+
+    private ReentrantReadWriteLock stripe(Playlist playlist) {
+        int hash = System.identityHashCode(playlist);
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    /*
+     * Adds a playlist the way addPlaylist() does; the caller holds the
+     * library write lock.
+     */
+    private void insertAt(Playlist playlist, int playlistIndex) {
+        ArrayList<Playlist> playlists = getPlaylists();
+        if (playlistIndex >= playlists.size()) {
+            playlists.add(playlist);
+        } else {
+            playlists.add(playlistIndex, playlist);
+        }
+    }
+}
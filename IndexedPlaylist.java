@@ -0,0 +1,241 @@
+package music;
+
+import java.util.SplittableRandom;
+
+/**
+ * This class is a Playlist whose songs can be found, inserted and removed
+ * by position in logarithmic time.
+ *
+ * The songs are still kept in the circular linked list of SongNodes, with
+ * last pointing to the first song, so getLast() and getSize() work as for
+ * any Playlist. Alongside the ring, an order statistic tree (a randomized
+ * binary search tree keyed by position) holds one entry per SongNode, in
+ * ring order, with the size of each subtree.
+ *
+ * Code that relinks the ring itself and then calls setLast() or setSize()
+ * marks the tree as stale; it is rebuilt in linear time the next time a
+ * song is looked up by position.
+ */
+public class IndexedPlaylist extends Playlist {
+
+    private static final class Entry {
+        final SongNode node;
+        Entry left, right;
+        int count = 1;
+
+        Entry(SongNode node) {
+            this.node = node;
+        }
+    }
+
+    private final SplittableRandom random = new SplittableRandom();
+    private Entry root;
+    private boolean stale = true;
+
+    /**
+     * Creates an empty playlist.
+     */
+    public IndexedPlaylist() {
+        super();
+    }
+
+    /**
+     * @param last the last SongNode of the circular linked list
+     * @param size the number of songs in the list
+     */
+    public IndexedPlaylist(SongNode last, int size) {
+        super(last, size);
+    }
+
+    @Override
+    public void setLast(SongNode last) {
+        super.setLast(last);
+        stale = true;
+    }
+
+    @Override
+    public void setSize(int size) {
+        super.setSize(size);
+        stale = true;
+    }
+
+    /**
+     * Returns the SongNode at a position. The first node of the circular
+     * linked list is at position 1.
+     *
+     * @param position the position of the song
+     * @return the node at that position, or null if there is none
+     */
+    public SongNode getNode(int position) {
+        if (position < 1 || position > getSize()) {
+            return null;
+        }
+        if (position == getSize()) {
+            return getLast();
+        }
+        index();
+        Entry entry = root;
+        int k = position;
+        while (true) {
+            int leftCount = count(entry.left);
+            if (k <= leftCount) {
+                entry = entry.left;
+            } else if (k == leftCount + 1) {
+                return entry.node;
+            } else {
+                k -= leftCount + 1;
+                entry = entry.right;
+            }
+        }
+    }
+
+    /**
+     * Inserts a song so that it ends up at the given position.
+     *
+     * @param position from 1 to getSize() + 1
+     * @param song the song to add
+     * @return true if the song has been added, false if the position is
+     * out of range
+     */
+    public boolean insert(int position, Song song) {
+        int size = getSize();
+        if (position < 1 || position > size + 1) {
+            return false;
+        }
+        index();
+
+        SongNode newSongNode = new SongNode(song, null);
+        if (size == 0) {
+            newSongNode.setNext(newSongNode);
+            super.setLast(newSongNode);
+        } else {
+            SongNode prev = (position == 1) ? getLast() : getNode(position - 1);
+            newSongNode.setNext(prev.getNext());
+            prev.setNext(newSongNode);
+            if (position == size + 1) {
+                super.setLast(newSongNode);
+            }
+        }
+        super.setSize(size + 1);
+
+        Entry[] parts = split(root, position - 1);
+        root = merge(merge(parts[0], new Entry(newSongNode)), parts[1]);
+        return true;
+    }
+
+    /**
+     * Removes the song at a position.
+     *
+     * @param position from 1 to getSize()
+     * @return the removed node, or null if the position is out of range
+     */
+    public SongNode remove(int position) {
+        int size = getSize();
+        if (position < 1 || position > size) {
+            return null;
+        }
+        index();
+
+        SongNode prev = (position == 1) ? getLast() : getNode(position - 1);
+        SongNode removed = prev.getNext();
+        if (size == 1) {
+            super.setLast(null);
+        } else {
+            prev.setNext(removed.getNext());
+            if (removed == getLast()) {
+                super.setLast(prev);
+            }
+        }
+        super.setSize(size - 1);
+
+        Entry[] parts = split(root, position - 1);
+        Entry[] rest = split(parts[1], 1);
+        root = merge(parts[0], rest[1]);
+        return removed;
+    }
+
+    /*
+     * Rebuilds the tree from the ring if the ring was changed behind its
+     * back. The tree is built perfectly balanced in linear time.
+     */
+    private void index() {
+        if (!stale) {
+            return;
+        }
+        int size = getSize();
+        Entry[] entries = new Entry[size];
+        SongNode node = (getLast() == null) ? null : getLast().getNext();
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry(node);
+            node = node.getNext();
+        }
+        root = build(entries, 0, size - 1);
+        stale = false;
+    }
+
+    private static Entry build(Entry[] entries, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Entry entry = entries[mid];
+        entry.left = build(entries, lo, mid - 1);
+        entry.right = build(entries, mid + 1, hi);
+        update(entry);
+        return entry;
+    }
+
+    private static int count(Entry entry) {
+        return (entry == null) ? 0 : entry.count;
+    }
+
+    private static void update(Entry entry) {
+        entry.count = 1 + count(entry.left) + count(entry.right);
+    }
+
+    /*
+     * Splits a tree into its first k entries and the rest.
+     */
+    private static Entry[] split(Entry entry, int k) {
+        Entry[] parts = new Entry[2];
+        if (entry == null) {
+            return parts;
+        }
+        if (count(entry.left) >= k) {
+            Entry[] sub = split(entry.left, k);
+            entry.left = sub[1];
+            update(entry);
+            parts[0] = sub[0];
+            parts[1] = entry;
+        } else {
+            Entry[] sub = split(entry.right, k - count(entry.left) - 1);
+            entry.right = sub[0];
+            update(entry);
+            parts[0] = entry;
+            parts[1] = sub[1];
+        }
+        return parts;
+    }
+
+    /*
+     * Joins two trees, every entry of a before every entry of b. The root
+     * is chosen with probability proportional to subtree size, which keeps
+     * the tree balanced in expectation whatever the order of operations.
+     */
+    private Entry merge(Entry a, Entry b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (random.nextInt(a.count + b.count) < a.count) {
+            a.right = merge(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        update(b);
+        return b;
+    }
+}
@@ -0,0 +1,480 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
+
+import music.LibraryMetrics.Operation;
+
+/**
+ * This class times every operation of another PlaylistLibrary.
+ *
+ * It wraps a library of any kind, such as a ConcurrentPlaylistLibrary or
+ * a JournaledPlaylistLibrary, and forwards every method to it. Each public
+ * method that reads or changes the library records its latency in the
+ * LibraryMetrics of the library, in the histogram of its Operation. The
+ * latency includes any time the wrapped library spends waiting for its
+ * locks. The wrapped library also counts node hops and bytes parsed into
+ * the same metrics (see setMetrics()). Publish them with an exporter:
+ *
+ *      InstrumentedPlaylistLibrary library =
+ *          new InstrumentedPlaylistLibrary(new ConcurrentPlaylistLibrary(), new LibraryMetrics());
+ *      new JmxMetricsExporter("music:type=PlaylistLibrary").export(library.getMetrics());
+ *
+ * With the metrics disabled, each method only reads one volatile flag
+ * before and after calling the wrapped library.
+ *
+ * The playlists live in the wrapped library; use it directly for methods
+ * of its own, such as ConcurrentPlaylistLibrary.read().
+ */
+public class InstrumentedPlaylistLibrary extends PlaylistLibrary {
+
+    private final PlaylistLibrary library;
+    private final LibraryMetrics timings;
+
+    /**
+     * @param library the library to time
+     * @param metrics the metrics to record into
+     */
+    public InstrumentedPlaylistLibrary(PlaylistLibrary library, LibraryMetrics metrics) {
+        this.library = library;
+        this.timings = metrics;
+        library.setMetrics(metrics);
+    }
+
+    /**
+     * @param songLibrary passes in ArrayList of playlists
+     * @param metrics the metrics to record into
+     */
+    public InstrumentedPlaylistLibrary(ArrayList<Playlist> songLibrary, LibraryMetrics metrics) {
+        this(new PlaylistLibrary(songLibrary), metrics);
+    }
+
+    /**
+     * Creates an empty library recording into new, enabled metrics.
+     */
+    public InstrumentedPlaylistLibrary() {
+        this(new PlaylistLibrary(), new LibraryMetrics());
+    }
+
+    /**
+     * @return the library this one times
+     */
+    public PlaylistLibrary getLibrary() {
+        return library;
+    }
+
+    @Override
+    public Playlist createPlaylist(String filename) {
+        long start = timings.start();
+        Playlist playlist = library.createPlaylist(filename);
+        timings.stop(Operation.CREATE_PLAYLIST, start);
+        return playlist;
+    }
+
+    @Override
+    public void addPlaylist(String filename, int playlistIndex) {
+        long start = timings.start();
+        library.addPlaylist(filename, playlistIndex);
+        timings.stop(Operation.ADD_PLAYLIST, start);
+    }
+
+    @Override
+    public boolean removePlaylist(int playlistIndex) {
+        long start = timings.start();
+        boolean removed = library.removePlaylist(playlistIndex);
+        timings.stop(Operation.REMOVE_PLAYLIST, start);
+        return removed;
+    }
+
+    @Override
+    public LoadReport loadAllPlaylists(String[] filenames, int threads) {
+        long start = timings.start();
+        LoadReport report = library.loadAllPlaylists(filenames, threads);
+        timings.stop(Operation.LOAD_ALL_PLAYLISTS, start);
+        return report;
+    }
+
+    @Override
+    public void addAllPlaylists(String[] filenames) {
+        long start = timings.start();
+        library.addAllPlaylists(filenames);
+        timings.stop(Operation.LOAD_ALL_PLAYLISTS, start);
+    }
+
+    @Override
+    public void saveLibrary(String filename) {
+        long start = timings.start();
+        library.saveLibrary(filename);
+        timings.stop(Operation.SAVE_LIBRARY, start);
+    }
+
+    @Override
+    public void loadLibrary(String filename) {
+        long start = timings.start();
+        library.loadLibrary(filename);
+        timings.stop(Operation.LOAD_LIBRARY, start);
+    }
+
+    @Override
+    public boolean insertSong(int playlistIndex, int position, Song song) {
+        long start = timings.start();
+        boolean inserted = library.insertSong(playlistIndex, position, song);
+        timings.stop(Operation.INSERT_SONG, start);
+        return inserted;
+    }
+
+    @Override
+    public boolean removeSong(int playlistIndex, Song song) {
+        long start = timings.start();
+        boolean removed = library.removeSong(playlistIndex, song);
+        timings.stop(Operation.REMOVE_SONG, start);
+        return removed;
+    }
+
+    @Override
+    public Song removeSongAt(int playlistIndex, int position) {
+        long start = timings.start();
+        Song removed = library.removeSongAt(playlistIndex, position);
+        timings.stop(Operation.REMOVE_SONG_AT, start);
+        return removed;
+    }
+
+    @Override
+    public boolean applyBatch(int playlistIndex, PlaylistBatch batch) {
+        long start = timings.start();
+        boolean applied = library.applyBatch(playlistIndex, batch);
+        timings.stop(Operation.APPLY_BATCH, start);
+        return applied;
+    }
+
+    @Override
+    public Song getSong(int playlistIndex, int position) {
+        long start = timings.start();
+        Song song = library.getSong(playlistIndex, position);
+        timings.stop(Operation.GET_SONG, start);
+        return song;
+    }
+
+    @Override
+    public PersistentPlaylist snapshot(int playlistIndex) {
+        long start = timings.start();
+        PersistentPlaylist snapshot = library.snapshot(playlistIndex);
+        timings.stop(Operation.SNAPSHOT, start);
+        return snapshot;
+    }
+
+    @Override
+    public void reversePlaylist(int playlistIndex) {
+        long start = timings.start();
+        library.reversePlaylist(playlistIndex);
+        timings.stop(Operation.REVERSE_PLAYLIST, start);
+    }
+
+    @Override
+    public void mergePlaylists(int playlistIndex1, int playlistIndex2) {
+        long start = timings.start();
+        library.mergePlaylists(playlistIndex1, playlistIndex2);
+        timings.stop(Operation.MERGE_PLAYLISTS, start);
+    }
+
+    @Override
+    public Playlist unionPlaylists(int... indices) {
+        long start = timings.start();
+        Playlist result = library.unionPlaylists(indices);
+        timings.stop(Operation.SET_OPERATION, start);
+        return result;
+    }
+
+    @Override
+    public Playlist intersectPlaylists(int... indices) {
+        long start = timings.start();
+        Playlist result = library.intersectPlaylists(indices);
+        timings.stop(Operation.SET_OPERATION, start);
+        return result;
+    }
+
+    @Override
+    public Playlist differencePlaylists(int... indices) {
+        long start = timings.start();
+        Playlist result = library.differencePlaylists(indices);
+        timings.stop(Operation.SET_OPERATION, start);
+        return result;
+    }
+
+    @Override
+    public Playlist dedupPlaylist(int playlistIndex) {
+        long start = timings.start();
+        Playlist result = library.dedupPlaylist(playlistIndex);
+        timings.stop(Operation.SET_OPERATION, start);
+        return result;
+    }
+
+    @Override
+    public Playlist mergeAll(int... indices) {
+        long start = timings.start();
+        Playlist merged = library.mergeAll(indices);
+        timings.stop(Operation.MERGE_ALL, start);
+        return merged;
+    }
+
+    @Override
+    public Playlist mergeAllToNew(int... indices) {
+        long start = timings.start();
+        Playlist merged = library.mergeAllToNew(indices);
+        timings.stop(Operation.MERGE_ALL, start);
+        return merged;
+    }
+
+    @Override
+    public void shufflePlaylist(int playlistIndex) {
+        long start = timings.start();
+        library.shufflePlaylist(playlistIndex);
+        timings.stop(Operation.SHUFFLE_PLAYLIST, start);
+    }
+
+    @Override
+    public void shufflePlaylist(int playlistIndex, RandomGenerator random) {
+        long start = timings.start();
+        library.shufflePlaylist(playlistIndex, random);
+        timings.stop(Operation.SHUFFLE_PLAYLIST, start);
+    }
+
+    /**
+     * Also times weightedShufflePlaylist(int), which shuffles through this
+     * method.
+     */
+    @Override
+    public void weightedShufflePlaylist(int playlistIndex, RandomGenerator random) {
+        long start = timings.start();
+        library.weightedShufflePlaylist(playlistIndex, random);
+        timings.stop(Operation.SHUFFLE_PLAYLIST, start);
+    }
+
+    /**
+     * Also times sortPlaylist(int), which sorts through this method.
+     */
+    @Override
+    public void sortPlaylist(int playlistIndex, Comparator<Song> order) {
+        long start = timings.start();
+        library.sortPlaylist(playlistIndex, order);
+        timings.stop(Operation.SORT_PLAYLIST, start);
+    }
+
+    @Override
+    public List<Song> songsByArtist(String artist) {
+        long start = timings.start();
+        List<Song> songs = library.songsByArtist(artist);
+        timings.stop(Operation.QUERY, start);
+        return songs;
+    }
+
+    @Override
+    public List<Song> songsByYear(int fromYear, int toYear) {
+        long start = timings.start();
+        List<Song> songs = library.songsByYear(fromYear, toYear);
+        timings.stop(Operation.QUERY, start);
+        return songs;
+    }
+
+    @Override
+    public List<Song> topSongs(int k) {
+        long start = timings.start();
+        List<Song> songs = library.topSongs(k);
+        timings.stop(Operation.QUERY, start);
+        return songs;
+    }
+
+    @Override
+    public List<Song> topSongs(int k, int fromYear, int toYear) {
+        long start = timings.start();
+        List<Song> songs = library.topSongs(k, fromYear, toYear);
+        timings.stop(Operation.QUERY, start);
+        return songs;
+    }
+
+    @Override
+    public void forEachSong(int playlistIndex, PlaylistCursor.Visitor visitor) {
+        long start = timings.start();
+        library.forEachSong(playlistIndex, visitor);
+        timings.stop(Operation.ITERATE, start);
+    }
+
+    /*
+     * Forwarded without timing: settings, lookups, and methods whose work
+     * is done as the caller consumes the result.
+     */
+
+    @Override
+    public void setErrorHandler(PlaylistReader.ErrorHandler errorHandler) {
+        library.setErrorHandler(errorHandler);
+    }
+
+    @Override
+    public PlaylistReader.ErrorHandler getErrorHandler() {
+        return library.getErrorHandler();
+    }
+
+    @Override
+    public void setSongRegistry(SongRegistry registry) {
+        library.setSongRegistry(registry);
+    }
+
+    @Override
+    public SongRegistry getSongRegistry() {
+        return library.getSongRegistry();
+    }
+
+    @Override
+    public void setParallel(ForkJoinPool pool, int threshold) {
+        library.setParallel(pool, threshold);
+    }
+
+    @Override
+    public boolean isParallel() {
+        return library.isParallel();
+    }
+
+    @Override
+    public ForkJoinPool getParallelPool() {
+        return library.getParallelPool();
+    }
+
+    @Override
+    public int getParallelThreshold() {
+        return library.getParallelThreshold();
+    }
+
+    @Override
+    public void setPlaylistCache(PlaylistCache cache) {
+        library.setPlaylistCache(cache);
+    }
+
+    @Override
+    public PlaylistCache getPlaylistCache() {
+        return library.getPlaylistCache();
+    }
+
+    @Override
+    public void setPlaylistSets(PlaylistSets playlistSets) {
+        library.setPlaylistSets(playlistSets);
+    }
+
+    @Override
+    public PlaylistSets getPlaylistSets() {
+        return library.getPlaylistSets();
+    }
+
+    /**
+     * Sets the metrics the wrapped library counts node hops and bytes
+     * parsed in; the timings are still recorded in the metrics this
+     * library was created with.
+     */
+    @Override
+    public void setMetrics(LibraryMetrics metrics) {
+        library.setMetrics(metrics);
+    }
+
+    @Override
+    public LibraryMetrics getMetrics() {
+        return library.getMetrics();
+    }
+
+    @Override
+    public void setIndexed(boolean indexed) {
+        library.setIndexed(indexed);
+    }
+
+    @Override
+    public boolean isIndexed() {
+        return library.isIndexed();
+    }
+
+    @Override
+    public void setReversible(boolean reversible) {
+        library.setReversible(reversible);
+    }
+
+    @Override
+    public boolean isReversible() {
+        return library.isReversible();
+    }
+
+    @Override
+    public void setSongIndexed(boolean songIndexed) {
+        library.setSongIndexed(songIndexed);
+    }
+
+    @Override
+    public boolean isSongIndexed() {
+        return library.isSongIndexed();
+    }
+
+    @Override
+    public void setQueryIndexed(boolean queryIndexed) {
+        library.setQueryIndexed(queryIndexed);
+    }
+
+    @Override
+    public boolean isQueryIndexed() {
+        return library.isQueryIndexed();
+    }
+
+    @Override
+    public Stream<Song> stream(int playlistIndex) {
+        return library.stream(playlistIndex);
+    }
+
+    @Override
+    public long getHandle(int playlistIndex) {
+        return library.getHandle(playlistIndex);
+    }
+
+    @Override
+    public int indexOf(long handle) {
+        return library.indexOf(handle);
+    }
+
+    @Override
+    public Playlist getPlaylist(long handle) {
+        return library.getPlaylist(handle);
+    }
+
+    @Override
+    public WeightedShuffle.Radio radio(int playlistIndex, RandomGenerator random) {
+        return library.radio(playlistIndex, random);
+    }
+
+    @Override
+    public void playPlaylist(int playlistIndex, int repeats) {
+        library.playPlaylist(playlistIndex, repeats);
+    }
+
+    @Override
+    public PlaybackEngine playPlaylistAsync(int playlistIndex, int repeats, PlaybackEngine engine) {
+        return library.playPlaylistAsync(playlistIndex, repeats, engine);
+    }
+
+    @Override
+    public void printPlaylist(int playlistIndex) {
+        library.printPlaylist(playlistIndex);
+    }
+
+    @Override
+    public void printLibrary() {
+        library.printLibrary();
+    }
+
+    @Override
+    public ArrayList<Playlist> getPlaylists() {
+        return library.getPlaylists();
+    }
+
+    @Override
+    public void setPlaylists(ArrayList<Playlist> p) {
+        library.setPlaylists(p);
+    }
+}
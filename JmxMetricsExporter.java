@@ -0,0 +1,172 @@
+package music;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * This class publishes LibraryMetrics as a JMX MBean, so they can be read
+ * with jconsole or any JMX client.
+ *
+ * For each operation the MBean has the attributes <operation>.count,
+ * .meanMicros, .p50Micros, .p99Micros and .maxMicros, such as
+ * insert_song.p99Micros, plus nodeHops and bytesParsed. Attribute values
+ * are read from the metrics when they are asked for, so exporting once is
+ * enough.
+ */
+public class JmxMetricsExporter implements LibraryMetrics.Exporter {
+
+    private static final String[] STATISTICS = { "count", "meanMicros", "p50Micros", "p99Micros", "maxMicros" };
+
+    private final ObjectName name;
+
+    /**
+     * @param name the object name to register under, such as
+     * "music:type=PlaylistLibrary"
+     * @throws IllegalArgumentException if the name is not a valid object
+     * name
+     */
+    public JmxMetricsExporter(String name) {
+        try {
+            this.name = new ObjectName(name);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid object name " + name, e);
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, replacing any
+     * MBean already registered under the name.
+     *
+     * @throws IllegalStateException if the MBean cannot be registered
+     */
+    @Override
+    public void export(LibraryMetrics metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsBean(metrics), name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + name, e);
+        }
+    }
+
+    /**
+     * Removes the MBean, if it is registered.
+     */
+    public void unexport() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister " + name, e);
+        }
+    }
+
+    /**
+     * A read-only MBean whose attributes are computed from the metrics.
+     */
+    private static final class MetricsBean implements DynamicMBean {
+        private final LibraryMetrics metrics;
+        private final MBeanInfo info;
+
+        MetricsBean(LibraryMetrics metrics) {
+            this.metrics = metrics;
+            ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (LibraryMetrics.Operation operation : LibraryMetrics.Operation.values()) {
+                for (String statistic : STATISTICS) {
+                    String type = statistic.equals("count") ? "long" : "double";
+                    attributes.add(new MBeanAttributeInfo(prefix(operation) + statistic, type,
+                            statistic + " of " + prefix(operation), true, false, false));
+                }
+            }
+            attributes.add(new MBeanAttributeInfo("nodeHops", "long", "SongNodes walked", true, false, false));
+            attributes.add(new MBeanAttributeInfo("bytesParsed", "long", "csv bytes parsed", true, false, false));
+            info = new MBeanInfo(LibraryMetrics.class.getName(), "Playlist library metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (attribute.equals("nodeHops")) {
+                return metrics.getNodeHops();
+            }
+            if (attribute.equals("bytesParsed")) {
+                return metrics.getBytesParsed();
+            }
+            for (LibraryMetrics.Operation operation : LibraryMetrics.Operation.values()) {
+                String prefix = prefix(operation);
+                if (!attribute.startsWith(prefix)) {
+                    continue;
+                }
+                LatencyHistogram histogram = metrics.getLatency(operation);
+                switch (attribute.substring(prefix.length())) {
+                    case "count":
+                        return histogram.getCount();
+                    case "meanMicros":
+                        return histogram.getMean() / 1e3;
+                    case "p50Micros":
+                        return histogram.getPercentile(50) / 1e3;
+                    case "p99Micros":
+                        return histogram.getPercentile(99) / 1e3;
+                    case "maxMicros":
+                        return histogram.getMax() / 1e3;
+                    default:
+                        break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // left out, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action), "No operation " + action);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+
+        private static String prefix(LibraryMetrics.Operation operation) {
+            return operation.name().toLowerCase(Locale.ROOT) + ".";
+        }
+    }
+}
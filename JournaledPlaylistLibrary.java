@@ -0,0 +1,706 @@
+package music;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * This class is a PlaylistLibrary that keeps itself on disk.
+ *
+ * The library lives in a directory holding a snapshot and a journal:
+ *
+ *      library-G.snapshot  the whole library at generation G, in the
+ *                          LibraryFile format (absent for generation 0,
+ *                          the empty library)
+ *      journal-G.log       every change made since that snapshot, as
+ *                          compact binary records (see PlaylistJournal)
+ *
+ * Each change is applied in memory and then appended to the journal, so a
+ * one-song edit costs a record of a few dozen bytes instead of rewriting a
+ * playlist. Shuffles record the seed they used and sorts by a SongOrder
+ * record the order, so replaying them gives the same result; a sort by any
+ * other Comparator records the sorted playlist.
+ *
+ * When the journal grows past the compaction threshold, and after
+ * setPlaylists(), loadAllPlaylists() and loadLibrary(), the library is
+ * compacted: it is written to the snapshot of the next generation, a new
+ * empty journal is started, and the old generation is deleted. A snapshot
+ * only becomes visible once it is complete, so a crash at any point leaves
+ * either the old generation or the new one.
+ *
+ * Opening a directory recovers the library: the newest snapshot is loaded
+ * and its journal replayed on top of it. A record torn by a crash is
+ * dropped along with anything after it. The indexed modes of the library
+ * are not recorded.
+ *
+ * Like PlaylistLibrary, this class is not thread safe.
+ */
+public class JournaledPlaylistLibrary extends PlaylistLibrary {
+
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte REMOVE_AT = 3;
+    private static final byte REVERSE = 4;
+    private static final byte SHUFFLE = 5;
+    private static final byte SORT = 6;
+    private static final byte REPLACE = 7;
+    private static final byte MERGE = 8;
+    private static final byte MERGE_ALL = 9;
+    private static final byte ADD_PLAYLIST = 10;
+    private static final byte REMOVE_PLAYLIST = 11;
+    private static final byte BATCH = 12;
+    private static final byte WEIGHTED_SHUFFLE = 13;
+
+    // the orders a SORT record can name, by their position in this array
+    private static final Comparator<?>[] ORDERS = {
+        SongOrder.BY_POPULARITY, SongOrder.BY_YEAR, SongOrder.BY_ARTIST, SongOrder.BY_NAME
+    };
+
+    private static final int GROUP_SIZE = 64;
+    private static final long GROUP_DELAY_MILLIS = 10;
+
+    private final Path directory;
+    private final PlaylistJournal.Durability durability;
+    private PlaylistJournal journal;
+    private long compactionThreshold = 64L << 20;
+
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream out = new DataOutputStream(record);
+
+    /**
+     * Opens the library kept in a directory, creating the directory if it
+     * does not exist, and recovers its playlists.
+     *
+     * @param directory the directory of the snapshot and journal
+     * @param durability when changes are forced to disk
+     * @throws IllegalArgumentException if the library cannot be read
+     */
+    public JournaledPlaylistLibrary(String directory, PlaylistJournal.Durability durability) {
+        this.directory = Paths.get(directory);
+        this.durability = durability;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not create " + directory, e);
+        }
+
+        long generation = latestSnapshot();
+        if (generation == 0) {
+            super.setPlaylists(new ArrayList<Playlist>());
+        } else {
+            super.loadLibrary(snapshotFile(generation).toString());
+        }
+        journal = openJournal(generation);
+        journal.replay(this::replay);
+        deleteGenerationsBefore(generation);
+    }
+
+    /**
+     * Sets how large the journal may grow before the library is compacted.
+     *
+     * @param bytes the journal size that triggers compaction
+     */
+    public void setCompactionThreshold(long bytes) {
+        this.compactionThreshold = bytes;
+    }
+
+    /**
+     * @return the journal of the current generation
+     */
+    public PlaylistJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Forces every change made so far to disk.
+     */
+    public void sync() {
+        journal.sync();
+    }
+
+    /**
+     * Syncs and closes the journal. The library must not be changed
+     * afterwards.
+     */
+    public void close() {
+        journal.close();
+    }
+
+    /**
+     * Writes the whole library to the snapshot of the next generation and
+     * starts a new, empty journal for it.
+     */
+    public void compact() {
+        ArrayList<Playlist> playlists = getPlaylists();
+        rotate(file -> LibraryFile.save(playlists, file.toString()));
+    }
+
+    /*
+     * Changes that add, remove or replace playlists.
+     */
+
+    @Override
+    public void addPlaylist(String filename, int playlistIndex) {
+        Playlist playlist = createPlaylist(filename);
+        insertAt(playlist, playlistIndex);
+        begin(ADD_PLAYLIST);
+        writeInt(playlistIndex);
+        writePlaylist(playlist);
+        commit();
+    }
+
+    @Override
+    public boolean removePlaylist(int playlistIndex) {
+        if (!super.removePlaylist(playlistIndex)) {
+            return false;
+        }
+        begin(REMOVE_PLAYLIST);
+        writeInt(playlistIndex);
+        commit();
+        return true;
+    }
+
+    /**
+     * Compacts the library after loading, rather than journaling every
+     * song of every file.
+     */
+    @Override
+    public LoadReport loadAllPlaylists(String[] filenames, int threads) {
+        LoadReport report = super.loadAllPlaylists(filenames, threads);
+        compact();
+        return report;
+    }
+
+    /**
+     * Compacts the library after loading, like loadAllPlaylists(). If a
+     * file cannot be read nothing was added, so nothing is written.
+     */
+    @Override
+    public void addAllPlaylists(String[] filenames) {
+        super.addAllPlaylists(filenames);
+        compact();
+    }
+
+    /**
+     * Copies the file as the snapshot of the next generation, so the
+     * playlists stay lazily loaded.
+     */
+    @Override
+    public void loadLibrary(String filename) {
+        super.loadLibrary(filename);
+        rotate(file -> Files.copy(Paths.get(filename), file, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    @Override
+    public void setPlaylists(ArrayList<Playlist> p) {
+        super.setPlaylists(p == null ? new ArrayList<Playlist>() : p);
+        compact();
+    }
+
+    @Override
+    public void mergePlaylists(int playlistIndex1, int playlistIndex2) {
+        if (!isValid(playlistIndex1) || !isValid(playlistIndex2)) {
+            return;
+        }
+        super.mergePlaylists(playlistIndex1, playlistIndex2);
+        begin(MERGE);
+        writeInt(playlistIndex1);
+        writeInt(playlistIndex2);
+        commit();
+    }
+
+    @Override
+    public Playlist mergeAll(int... indices) {
+        Playlist merged = super.mergeAll(indices);
+        if (merged == null) {
+            return null;
+        }
+        begin(MERGE_ALL);
+        writeInt(indices.length);
+        for (int index : indices) {
+            writeInt(index);
+        }
+        commit();
+        return merged;
+    }
+
+    @Override
+    public Playlist mergeAllToNew(int... indices) {
+        return added(super.mergeAllToNew(indices));
+    }
+
+    @Override
+    public Playlist unionPlaylists(int... indices) {
+        return added(super.unionPlaylists(indices));
+    }
+
+    @Override
+    public Playlist intersectPlaylists(int... indices) {
+        return added(super.intersectPlaylists(indices));
+    }
+
+    @Override
+    public Playlist differencePlaylists(int... indices) {
+        return added(super.differencePlaylists(indices));
+    }
+
+    @Override
+    public Playlist dedupPlaylist(int playlistIndex) {
+        return added(super.dedupPlaylist(playlistIndex));
+    }
+
+    /*
+     * Journals the result of a set operation or of mergeAllToNew(), which
+     * has just been added at the end of the library, as an added playlist.
+     */
+    private Playlist added(Playlist result) {
+        if (result == null) {
+            return null;
+        }
+        begin(ADD_PLAYLIST);
+        writeInt(getPlaylists().size() - 1);
+        writePlaylist(result);
+        commit();
+        return result;
+    }
+
+    /*
+     * Changes to one playlist.
+     */
+
+    @Override
+    public boolean insertSong(int playlistIndex, int position, Song song) {
+        if (!super.insertSong(playlistIndex, position, song)) {
+            return false;
+        }
+        begin(INSERT);
+        writeInt(playlistIndex);
+        writeInt(position);
+        writeSong(song);
+        commit();
+        return true;
+    }
+
+    @Override
+    public boolean removeSong(int playlistIndex, Song song) {
+        if (!super.removeSong(playlistIndex, song)) {
+            return false;
+        }
+        begin(REMOVE);
+        writeInt(playlistIndex);
+        writeSong(song);
+        commit();
+        return true;
+    }
+
+    @Override
+    public boolean applyBatch(int playlistIndex, PlaylistBatch batch) {
+        if (!super.applyBatch(playlistIndex, batch)) {
+            return false;
+        }
+        begin(BATCH);
+        writeInt(playlistIndex);
+        writeInt(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            // a remove is written as position 0
+            writeInt(batch.getPosition(i));
+            writeSong(batch.getSong(i));
+        }
+        commit();
+        return true;
+    }
+
+    @Override
+    public Song removeSongAt(int playlistIndex, int position) {
+        Song removed = super.removeSongAt(playlistIndex, position);
+        if (removed == null) {
+            return null;
+        }
+        begin(REMOVE_AT);
+        writeInt(playlistIndex);
+        writeInt(position);
+        commit();
+        return removed;
+    }
+
+    @Override
+    public void reversePlaylist(int playlistIndex) {
+        if (!isValid(playlistIndex)) {
+            return;
+        }
+        super.reversePlaylist(playlistIndex);
+        begin(REVERSE);
+        writeInt(playlistIndex);
+        commit();
+    }
+
+    /**
+     * Draws the seed of the shuffle from StdRandom, so StdRandom.setSeed()
+     * still makes the order reproducible.
+     */
+    @Override
+    public void shufflePlaylist(int playlistIndex) {
+        long seed = ((long) StdRandom.uniformInt(Integer.MAX_VALUE) << 32) ^ StdRandom.uniformInt(Integer.MAX_VALUE);
+        shuffle(playlistIndex, seed);
+    }
+
+    /**
+     * Draws the seed of the shuffle from the generator, and shuffles with
+     * a SplittableRandom of that seed that the journal can recreate.
+     */
+    @Override
+    public void shufflePlaylist(int playlistIndex, RandomGenerator random) {
+        shuffle(playlistIndex, random.nextLong());
+    }
+
+    /**
+     * Draws the seed of the shuffle from the generator, like
+     * shufflePlaylist(int, RandomGenerator).
+     */
+    @Override
+    public void weightedShufflePlaylist(int playlistIndex, RandomGenerator random) {
+        if (!isValid(playlistIndex)) {
+            return;
+        }
+        long seed = random.nextLong();
+        super.weightedShufflePlaylist(playlistIndex, new SplittableRandom(seed));
+        begin(WEIGHTED_SHUFFLE);
+        writeInt(playlistIndex);
+        writeLong(seed);
+        commit();
+    }
+
+    @Override
+    public void sortPlaylist(int playlistIndex, Comparator<Song> order) {
+        if (!isValid(playlistIndex)) {
+            return;
+        }
+        super.sortPlaylist(playlistIndex, order);
+        int code = orderCode(order);
+        if (code >= 0) {
+            begin(SORT);
+            writeInt(playlistIndex);
+            writeInt(code);
+        } else {
+            begin(REPLACE);
+            writeInt(playlistIndex);
+            writePlaylist(getPlaylists().get(playlistIndex));
+        }
+        commit();
+    }
+
+    private void shuffle(int playlistIndex, long seed) {
+        if (!isValid(playlistIndex)) {
+            return;
+        }
+        super.shufflePlaylist(playlistIndex, new SplittableRandom(seed));
+        begin(SHUFFLE);
+        writeInt(playlistIndex);
+        writeLong(seed);
+        commit();
+    }
+
+    /*
+     * Applies one journal record, calling only the PlaylistLibrary
+     * methods so nothing is journaled again.
+     */
+    @SuppressWarnings("unchecked")
+    private void replay(ByteBuffer in) {
+        byte op = in.get();
+        int playlistIndex = in.getInt();
+        switch (op) {
+            case INSERT:
+                int position = in.getInt();
+                super.insertSong(playlistIndex, position, readSong(in));
+                break;
+            case REMOVE:
+                super.removeSong(playlistIndex, readSong(in));
+                break;
+            case REMOVE_AT:
+                super.removeSongAt(playlistIndex, in.getInt());
+                break;
+            case REVERSE:
+                super.reversePlaylist(playlistIndex);
+                break;
+            case SHUFFLE:
+                super.shufflePlaylist(playlistIndex, new SplittableRandom(in.getLong()));
+                break;
+            case WEIGHTED_SHUFFLE:
+                super.weightedShufflePlaylist(playlistIndex, new SplittableRandom(in.getLong()));
+                break;
+            case SORT:
+                super.sortPlaylist(playlistIndex, (Comparator<Song>) ORDERS[in.getInt()]);
+                break;
+            case REPLACE:
+                getPlaylists().set(playlistIndex, readPlaylist(in));
+                break;
+            case MERGE:
+                super.mergePlaylists(playlistIndex, in.getInt());
+                break;
+            case MERGE_ALL:
+                int[] indices = new int[playlistIndex];
+                for (int i = 0; i < indices.length; i++) {
+                    indices[i] = in.getInt();
+                }
+                super.mergeAll(indices);
+                break;
+            case ADD_PLAYLIST:
+                insertAt(readPlaylist(in), playlistIndex);
+                break;
+            case REMOVE_PLAYLIST:
+                super.removePlaylist(playlistIndex);
+                break;
+            case BATCH:
+                PlaylistBatch batch = new PlaylistBatch();
+                for (int i = in.getInt(); i > 0; i--) {
+                    int at = in.getInt();
+                    Song song = readSong(in);
+                    if (at == 0) {
+                        batch.remove(song);
+                    } else {
+                        batch.insert(at, song);
+                    }
+                }
+                super.applyBatch(playlistIndex, batch);
+                break;
+            default:
+                throw new IllegalArgumentException(journal.getFile() + " has unknown record type " + op);
+        }
+    }
+
+    /*
+     * Adds a playlist the way addPlaylist() does.
+     */
+    private void insertAt(Playlist playlist, int playlistIndex) {
+        ArrayList<Playlist> playlists = getPlaylists();
+        if (playlistIndex >= playlists.size()) {
+            playlists.add(playlist);
+        } else {
+            playlists.add(playlistIndex, playlist);
+        }
+    }
+
+    private boolean isValid(int playlistIndex) {
+        return playlistIndex >= 0 && playlistIndex < getPlaylists().size();
+    }
+
+    private static int orderCode(Comparator<Song> order) {
+        for (int i = 0; i < ORDERS.length; i++) {
+            if (ORDERS[i] == order) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Record encoding. Strings are an int byte count (-1 for null) and
+     * their UTF-8 bytes; a playlist is its size and its songs in order.
+     */
+
+    private void begin(byte op) {
+        record.reset();
+        record.write(op);
+    }
+
+    private void commit() {
+        journal.append(record.bytes(), record.size());
+        if (journal.getSize() > compactionThreshold) {
+            compact();
+        }
+    }
+
+    private void writeInt(int value) {
+        try {
+            out.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeLong(long value) {
+        try {
+            out.writeLong(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeString(String s) {
+        if (s == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        record.write(bytes, 0, bytes.length);
+    }
+
+    private void writeSong(Song song) {
+        writeString(song.getName());
+        writeString(song.getArtist());
+        writeString(song.getLink());
+        writeInt(song.getYear());
+        writeInt(song.getPopularity());
+    }
+
+    private void writePlaylist(Playlist playlist) {
+        writeInt(playlist.getSize());
+        PlaylistCursor.forEach(playlist, (position, song) -> writeSong(song));
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    private Song readSong(ByteBuffer in) {
+        String name = readString(in);
+        String artist = readString(in);
+        String link = readString(in);
+        Song song = new Song(name, artist, in.getInt(), in.getInt(), link);
+        return (getSongRegistry() == null) ? song : getSongRegistry().canonical(song);
+    }
+
+    private Playlist readPlaylist(ByteBuffer in) {
+        int size = in.getInt();
+        SongNode last = null;
+        for (int i = 0; i < size; i++) {
+            SongNode node = new SongNode(readSong(in), null);
+            if (last == null) {
+                node.setNext(node);
+            } else {
+                node.setNext(last.getNext());
+                last.setNext(node);
+            }
+            last = node;
+        }
+        return newPlaylist(last, size);
+    }
+
+    /*
+     * Generations: files, compaction and recovery.
+     */
+
+    private interface SnapshotWriter {
+        void write(Path file) throws IOException;
+    }
+
+    /*
+     * Writes the snapshot of the next generation through a temporary file,
+     * then switches to a new journal and deletes the old generation. The
+     * rename makes the snapshot appear complete or not at all.
+     */
+    private void rotate(SnapshotWriter writer) {
+        journal.sync();
+        long next = journal.getGeneration() + 1;
+        Path temporary = directory.resolve("library-" + next + ".snapshot.tmp");
+        try {
+            writer.write(temporary);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporary, snapshotFile(next), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write " + snapshotFile(next), e);
+        }
+        PlaylistJournal old = journal;
+        journal = openJournal(next);
+        old.close();
+        deleteGenerationsBefore(next);
+    }
+
+    private PlaylistJournal openJournal(long generation) {
+        return new PlaylistJournal(directory.resolve("journal-" + generation + ".log"), generation,
+                                   durability, GROUP_SIZE, GROUP_DELAY_MILLIS);
+    }
+
+    private Path snapshotFile(long generation) {
+        return directory.resolve("library-" + generation + ".snapshot");
+    }
+
+    private long latestSnapshot() {
+        long latest = 0;
+        for (Path file : listFiles()) {
+            long generation = generationOf(file, "library-", ".snapshot");
+            latest = Math.max(latest, generation);
+        }
+        return latest;
+    }
+
+    /*
+     * Deletes the snapshots and journals of older generations, and any
+     * snapshot left half written.
+     */
+    private void deleteGenerationsBefore(long generation) {
+        for (Path file : listFiles()) {
+            String name = file.getFileName().toString();
+            long snapshot = generationOf(file, "library-", ".snapshot");
+            long log = generationOf(file, "journal-", ".log");
+            if (name.endsWith(".snapshot.tmp")
+                    || (snapshot >= 0 && snapshot < generation)
+                    || (log >= 0 && log < generation)) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // still mapped on some platforms; the next compaction retries
+                }
+            }
+        }
+    }
+
+    private ArrayList<Path> listFiles() {
+        ArrayList<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not list " + directory, e);
+        }
+        return files;
+    }
+
+    /*
+     * Returns the generation in a file name like prefix + G + suffix, or
+     * -1 if the name is not like that.
+     */
+    private static long generationOf(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A ByteArrayOutputStream whose array can be read without copying.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package music;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a lock-free histogram of latencies in nanoseconds.
+ *
+ * Like an HDR histogram, its buckets are log-linear: values below 16 have
+ * a bucket each, and every power of two above that is split into 16
+ * buckets, so any recorded value is known to within about 6% while the
+ * whole range of a long fits in 960 buckets. Recording a value is one
+ * atomic increment and two adder updates; no lock is taken and nothing is
+ * allocated.
+ *
+ * Reads are not atomic snapshots: a value recorded during a read may or
+ * may not be counted.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos a latency; negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean of the values recorded, or 0 if there are none
+     */
+    public double getMean() {
+        long n = count.sum();
+        return (n == 0) ? 0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @return the largest value recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100
+     * @return the upper bound of the bucket holding that percentile of the
+     * values recorded, or 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(max.get(), upperBound(i));
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets every value recorded.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /*
+     * Values below 16 map to themselves; above that, the bucket is the
+     * position of the highest bit and the 4 bits below it.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int log = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (log - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (log - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /*
+     * The largest value that maps to a bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int log = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS | sub) << (log - SUB_BUCKET_BITS);
+        return lower + (1L << (log - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,84 @@
+package music;
+
+/**
+ * This class is a Playlist whose songs are only read when they are first
+ * needed.
+ *
+ * Until then it holds just the number of songs and a Loader that can
+ * build the circular linked list. getSize() answers from that count; the
+ * first call to getLast(), setLast() or setSize() loads the songs, after
+ * which the playlist behaves like any other.
+ */
+public class LazyPlaylist extends Playlist {
+
+    /**
+     * Builds the songs of a LazyPlaylist.
+     */
+    public interface Loader {
+        /**
+         * @return a playlist holding the songs
+         */
+        Playlist load();
+    }
+
+    private final Loader loader;
+    private volatile boolean loaded;
+
+    /**
+     * @param size the number of songs the loader will produce
+     * @param loader builds the songs when they are first needed
+     */
+    public LazyPlaylist(int size, Loader loader) {
+        super(null, size);
+        this.loader = loader;
+    }
+
+    /**
+     * @return the loader that builds the songs
+     */
+    public Loader getLoader() {
+        return loader;
+    }
+
+    /**
+     * @return true if the songs have been loaded
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Loads the songs now if they have not been loaded yet.
+     */
+    public void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                Playlist playlist = loader.load();
+                super.setLast(playlist.getLast());
+                super.setSize(playlist.getSize());
+                loaded = true;
+            }
+        }
+    }
+
+    @Override
+    public SongNode getLast() {
+        load();
+        return super.getLast();
+    }
+
+    @Override
+    public void setLast(SongNode last) {
+        load();
+        super.setLast(last);
+    }
+
+    @Override
+    public void setSize(int size) {
+        load();
+        super.setSize(size);
+    }
+}
@@ -0,0 +1,264 @@
+package music;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class saves a whole song library to a compact binary file, and
+ * loads it back through a memory-mapped buffer.
+ *
+ * File layout, all numbers big-endian:
+ *
+ *      int     magic, "MPLB"
+ *      int     format version, 1
+ *      int     number of strings S
+ *      int     number of playlists P
+ *      int[S+1] string offsets into the string data; string i is the
+ *              UTF-8 bytes from offset i to offset i+1
+ *      byte[]  string data
+ *      P x     int song count, long file offset of the playlist's records
+ *      records one per song, in playlist order:
+ *              int name, int artist, int link (string ids; -1 for null),
+ *              int year, int popularity
+ *
+ * Every distinct name, artist and link is stored once in the string
+ * table, and each song is a fixed-width 20 byte record.
+ *
+ * Loading maps the file and reads only the header and the playlist table,
+ * so it takes about the same time whatever the size of the library. Each
+ * playlist is a LazyPlaylist whose Songs are built from the mapped records
+ * the first time it is touched; strings are decoded once and shared by
+ * every song that uses them.
+ */
+public final class LibraryFile {
+
+    /**
+     * "MPLB"
+     */
+    static final int MAGIC = 0x4D504C42;
+
+    /**
+     * The format version written by save().
+     */
+    static final int VERSION = 1;
+
+    private static final int RECORD_BYTES = 20;
+    private static final int NO_STRING = -1;
+
+    private LibraryFile() {
+    }
+
+    /**
+     * Writes the playlists of a library to a file, replacing it.
+     *
+     * The library is written to filename.tmp, forced to disk and then
+     * moved over the file in one atomic step. A crash while
+     * saving leaves the old file whole, and a library mapped from the old
+     * file keeps reading it.
+     *
+     * @param playlists the playlists to save, in library order
+     * @param filename the file to write
+     * @throws IllegalArgumentException if the file cannot be written
+     */
+    public static void save(List<Playlist> playlists, String filename) {
+        HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        ByteArrayOutputStream stringData = new ByteArrayOutputStream();
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+        int[][] records = new int[playlists.size()][];
+
+        for (int p = 0; p < playlists.size(); p++) {
+            Playlist playlist = playlists.get(p);
+            int[] fields = new int[playlist.getSize() * 5];
+            SongNode current = playlist.getLast();
+            for (int i = 0; i < playlist.getSize(); i++) {
+                current = current.getNext();
+                Song song = current.getSong();
+                fields[i * 5] = id(song.getName(), ids, stringData, offsets);
+                fields[i * 5 + 1] = id(song.getArtist(), ids, stringData, offsets);
+                fields[i * 5 + 2] = id(song.getLink(), ids, stringData, offsets);
+                fields[i * 5 + 3] = song.getYear();
+                fields[i * 5 + 4] = song.getPopularity();
+            }
+            records[p] = fields;
+        }
+        offsets.add(stringData.size());
+
+        long recordOffset = 16L + 4L * offsets.size() + stringData.size() + 12L * playlists.size();
+        Path target = Paths.get(filename);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                write(channel, offsets, stringData, records, recordOffset);
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // the half-written file is overwritten by the next save
+            }
+            throw new IllegalArgumentException("Could not write " + filename, e);
+        }
+    }
+
+    /*
+     * Writes the header, the string table, the playlist table and the
+     * records of a library file to a channel.
+     */
+    private static void write(FileChannel channel, List<Integer> offsets, ByteArrayOutputStream stringData,
+                              int[][] records, long recordOffset) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(offsets.size() - 1);
+        out.writeInt(records.length);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        stringData.writeTo(out);
+        for (int[] fields : records) {
+            out.writeInt(fields.length / 5);
+            out.writeLong(recordOffset);
+            recordOffset += 4L * fields.length;
+        }
+        for (int[] fields : records) {
+            for (int field : fields) {
+                out.writeInt(field);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Maps a library file and returns its playlists as LazyPlaylists.
+     *
+     * @param filename the file to read
+     * @return the playlists, in library order
+     * @throws IllegalArgumentException if the file cannot be read or is not
+     * a library file of a known version
+     */
+    public static ArrayList<Playlist> load(String filename) {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(filename + " is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + filename, e);
+        }
+
+        if (buffer.capacity() < 16 || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException(filename + " is not a library file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(filename + " has unsupported version " + buffer.getInt(4));
+        }
+
+        StringTable strings = new StringTable(buffer, buffer.getInt(8));
+        int playlistCount = buffer.getInt(12);
+        int table = strings.end();
+        ArrayList<Playlist> playlists = new ArrayList<Playlist>(playlistCount);
+        for (int p = 0; p < playlistCount; p++) {
+            int size = buffer.getInt(table + 12 * p);
+            int offset = (int) buffer.getLong(table + 12 * p + 4);
+            playlists.add(new LazyPlaylist(size, () -> readPlaylist(buffer, strings, offset, size)));
+        }
+        return playlists;
+    }
+
+    /*
+     * Builds the circular linked list of one playlist from its records.
+     */
+    private static Playlist readPlaylist(MappedByteBuffer buffer, StringTable strings, int offset, int size) {
+        SongNode last = null;
+        for (int i = 0; i < size; i++) {
+            int record = offset + i * RECORD_BYTES;
+            Song song = new Song(strings.get(buffer.getInt(record)),
+                                 strings.get(buffer.getInt(record + 4)),
+                                 buffer.getInt(record + 12),
+                                 buffer.getInt(record + 16),
+                                 strings.get(buffer.getInt(record + 8)));
+            SongNode node = new SongNode(song, null);
+            if (last == null) {
+                node.setNext(node);
+            } else {
+                node.setNext(last.getNext());
+                last.setNext(node);
+            }
+            last = node;
+        }
+        return new Playlist(last, size);
+    }
+
+    private static int id(String s, HashMap<String, Integer> ids, ByteArrayOutputStream data, List<Integer> offsets) {
+        if (s == null) {
+            return NO_STRING;
+        }
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = offsets.size();
+            ids.put(s, id);
+            offsets.add(data.size());
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            data.write(bytes, 0, bytes.length);
+        }
+        return id;
+    }
+
+    /*
+     * The string table of a mapped file. Strings are decoded on first use
+     * and cached; decoding the same string twice from two threads is
+     * harmless, so the cache is not synchronized.
+     */
+    private static final class StringTable {
+        private final MappedByteBuffer buffer;
+        private final int count;
+        private final int dataStart;
+        private final String[] cache;
+
+        StringTable(MappedByteBuffer buffer, int count) {
+            this.buffer = buffer;
+            this.count = count;
+            this.dataStart = 16 + 4 * (count + 1);
+            this.cache = new String[count];
+        }
+
+        String get(int id) {
+            if (id == NO_STRING) {
+                return null;
+            }
+            String s = cache[id];
+            if (s == null) {
+                int from = buffer.getInt(16 + 4 * id);
+                int to = buffer.getInt(16 + 4 * (id + 1));
+                byte[] bytes = new byte[to - from];
+                buffer.get(dataStart + from, bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+                cache[id] = s;
+            }
+            return s;
+        }
+
+        int end() {
+            return dataStart + buffer.getInt(16 + 4 * count);
+        }
+    }
+}
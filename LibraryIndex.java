@@ -0,0 +1,367 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class indexes every song of a library so queries across all the
+ * playlists do not walk every SongNode.
+ *
+ * Each distinct song (by Song.equals()) has one entry, counting how many
+ * SongNodes of the library hold it. The entries are indexed three ways:
+ *
+ *  - a hash index from artist to the artist's songs,
+ *  - a sorted index from year to the songs of that year,
+ *  - a sorted set of all songs,
+ *
+ * and every set is kept in decreasing popularity order, so the k most
+ * popular songs, overall or within a range of years, are read off the
+ * front of the sets instead of being selected from all the songs.
+ *
+ * PlaylistLibrary reports the songs it inserts and removes. Playlists that
+ * are added to or removed from the library are found by reconcile(), which
+ * compares the library against the playlists the index has seen; a
+ * playlist whose size changed without the index being told is a sign the
+ * library was edited some other way, and the whole index is rebuilt.
+ *
+ * Songs must not be changed through their setters while they are indexed.
+ */
+class LibraryIndex {
+
+    /**
+     * One distinct song and the number of SongNodes that hold it.
+     */
+    private static final class Entry {
+        final Song song;
+        final long sequence;
+        int count;
+
+        Entry(Song song, long sequence) {
+            this.song = song;
+            this.sequence = sequence;
+        }
+    }
+
+    // decreasing popularity, then the order the songs were first indexed
+    private static final Comparator<Entry> POPULAR = (a, b) -> {
+        int byPopularity = Integer.compare(b.song.getPopularity(), a.song.getPopularity());
+        return (byPopularity != 0) ? byPopularity : Long.compare(a.sequence, b.sequence);
+    };
+
+    private final HashMap<SongKey, Entry> entries = new HashMap<SongKey, Entry>();
+    private final HashMap<String, TreeSet<Entry>> byArtist = new HashMap<String, TreeSet<Entry>>();
+    private final TreeMap<Integer, TreeSet<Entry>> byYear = new TreeMap<Integer, TreeSet<Entry>>();
+    private final TreeSet<Entry> byPopularity = new TreeSet<Entry>(POPULAR);
+    private long sequence;
+
+    // the playlists indexed, and the size each had when last seen
+    private final IdentityHashMap<Playlist, Integer> playlists = new IdentityHashMap<Playlist, Integer>();
+    private boolean stale;
+
+    /**
+     * Brings the index up to date with the playlists of a library:
+     * indexes the playlists it has not seen, and drops the ones that are
+     * no longer in the library.
+     *
+     * @param library the playlists of the library, or null
+     */
+    synchronized void reconcile(List<Playlist> library) {
+        if (library == null) {
+            library = new ArrayList<Playlist>();
+        }
+        IdentityHashMap<Playlist, Boolean> present = new IdentityHashMap<Playlist, Boolean>(library.size() * 2);
+        ArrayList<Playlist> unseen = new ArrayList<Playlist>();
+        for (Playlist playlist : library) {
+            present.put(playlist, Boolean.TRUE);
+            Integer size = playlists.get(playlist);
+            if (size == null) {
+                unseen.add(playlist);
+            } else if (size != playlist.getSize()) {
+                stale = true;
+            }
+        }
+        if (!stale) {
+            ArrayList<Playlist> gone = new ArrayList<Playlist>();
+            for (Map.Entry<Playlist, Integer> seen : playlists.entrySet()) {
+                if (!present.containsKey(seen.getKey())) {
+                    if (seen.getValue() != seen.getKey().getSize()) {
+                        stale = true;
+                        break;
+                    }
+                    gone.add(seen.getKey());
+                }
+            }
+            if (!stale) {
+                for (Playlist playlist : gone) {
+                    playlists.remove(playlist);
+                    forEachSong(playlist, -1);
+                }
+                for (Playlist playlist : unseen) {
+                    track(playlist);
+                }
+                return;
+            }
+        }
+
+        entries.clear();
+        byArtist.clear();
+        byYear.clear();
+        byPopularity.clear();
+        playlists.clear();
+        for (Playlist playlist : present.keySet()) {
+            track(playlist);
+        }
+        stale = false;
+    }
+
+    /**
+     * Records that a song has just been inserted into a playlist.
+     *
+     * @param playlist the playlist, already one song longer
+     * @param song the inserted song
+     */
+    synchronized void inserted(Playlist playlist, Song song) {
+        Integer size = playlists.get(playlist);
+        if (size == null) {
+            return;
+        }
+        if (size + 1 == playlist.getSize()) {
+            playlists.put(playlist, playlist.getSize());
+            add(song, 1);
+        } else {
+            stale = true;
+        }
+    }
+
+    /**
+     * Records that a song has just been removed from a playlist.
+     *
+     * @param playlist the playlist, already one song shorter
+     * @param song the removed song
+     */
+    synchronized void removed(Playlist playlist, Song song) {
+        Integer size = playlists.get(playlist);
+        if (size == null) {
+            return;
+        }
+        if (size - 1 == playlist.getSize()) {
+            playlists.put(playlist, playlist.getSize());
+            add(song, -1);
+        } else {
+            stale = true;
+        }
+    }
+
+    /**
+     * Records that a batch of edits has just been applied to a playlist.
+     *
+     * @param playlist the edited playlist
+     * @param sizeBefore the size the playlist had before the batch
+     * @param added the songs the batch added
+     * @param removed the songs the batch removed
+     */
+    synchronized void batched(Playlist playlist, int sizeBefore, List<Song> added, List<Song> removed) {
+        Integer size = playlists.get(playlist);
+        if (size == null) {
+            return;
+        }
+        if (size == sizeBefore && sizeBefore + added.size() - removed.size() == playlist.getSize()) {
+            playlists.put(playlist, playlist.getSize());
+            for (Song song : added) {
+                add(song, 1);
+            }
+            for (Song song : removed) {
+                add(song, -1);
+            }
+        } else {
+            stale = true;
+        }
+    }
+
+    /**
+     * Records that the songs of some playlists have been moved, not
+     * copied, into a new playlist, leaving them empty.
+     *
+     * @param sources the emptied playlists
+     * @param sizes the sizes the sources had before the move
+     * @param target the playlist now holding their songs
+     */
+    synchronized void moved(Playlist[] sources, int[] sizes, Playlist target) {
+        for (int i = 0; i < sources.length; i++) {
+            Integer size = playlists.get(sources[i]);
+            if (size == null || size != sizes[i]) {
+                stale = true;
+                return;
+            }
+        }
+        for (Playlist source : sources) {
+            playlists.put(source, 0);
+        }
+        playlists.put(target, target.getSize());
+    }
+
+    /**
+     * Makes the next reconcile() rebuild the index from scratch.
+     */
+    synchronized void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * @param artist an artist
+     * @return the distinct songs by the artist, most popular first
+     */
+    synchronized List<Song> byArtist(String artist) {
+        TreeSet<Entry> songs = byArtist.get(artist);
+        return (songs == null) ? new ArrayList<Song>() : songsOf(songs, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param fromYear the first year, inclusive
+     * @param toYear the last year, inclusive
+     * @return the distinct songs of those years, by year and then most
+     * popular first
+     */
+    synchronized List<Song> byYear(int fromYear, int toYear) {
+        ArrayList<Song> songs = new ArrayList<Song>();
+        if (fromYear > toYear) {
+            return songs;
+        }
+        for (TreeSet<Entry> year : byYear.subMap(fromYear, true, toYear, true).values()) {
+            for (Entry entry : year) {
+                songs.add(entry.song);
+            }
+        }
+        return songs;
+    }
+
+    /**
+     * @param k the number of songs wanted
+     * @return the k most popular distinct songs, most popular first
+     */
+    synchronized List<Song> top(int k) {
+        return songsOf(byPopularity, k);
+    }
+
+    /**
+     * Merges the popularity-ordered sets of each year in the range, taking
+     * the front entry of one set at a time.
+     *
+     * @param k the number of songs wanted
+     * @param fromYear the first year, inclusive
+     * @param toYear the last year, inclusive
+     * @return the k most popular distinct songs of those years, most
+     * popular first
+     */
+    synchronized List<Song> top(int k, int fromYear, int toYear) {
+        ArrayList<Song> songs = new ArrayList<Song>();
+        if (fromYear > toYear || k <= 0) {
+            return songs;
+        }
+        PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>((a, b) -> POPULAR.compare(a.entry, b.entry));
+        for (TreeSet<Entry> year : byYear.subMap(fromYear, true, toYear, true).values()) {
+            Iterator<Entry> iterator = year.iterator();
+            heads.add(new Cursor(iterator.next(), iterator));
+        }
+        while (songs.size() < k && !heads.isEmpty()) {
+            Cursor head = heads.poll();
+            songs.add(head.entry.song);
+            if (head.rest.hasNext()) {
+                head.entry = head.rest.next();
+                heads.add(head);
+            }
+        }
+        return songs;
+    }
+
+    /**
+     * @param song a song
+     * @return the number of SongNodes in the library holding the song
+     */
+    synchronized int count(Song song) {
+        Entry entry = entries.get(new SongKey(song));
+        return (entry == null) ? 0 : entry.count;
+    }
+
+    /**
+     * @return the number of distinct songs in the library
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * The next entry of one year's set, during top().
+     */
+    private static final class Cursor {
+        Entry entry;
+        final Iterator<Entry> rest;
+
+        Cursor(Entry entry, Iterator<Entry> rest) {
+            this.entry = entry;
+            this.rest = rest;
+        }
+    }
+
+    private void track(Playlist playlist) {
+        playlists.put(playlist, playlist.getSize());
+        forEachSong(playlist, 1);
+    }
+
+    private void forEachSong(Playlist playlist, int delta) {
+        PlaylistCursor.forEach(playlist, (position, song) -> add(song, delta));
+    }
+
+    /*
+     * Adds delta to the count of a song, creating its entry when it first
+     * appears and dropping it when the count reaches 0.
+     */
+    private void add(Song song, int delta) {
+        SongKey key = new SongKey(song);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (delta < 0) {
+                return;
+            }
+            entry = new Entry(song, sequence++);
+            entries.put(key, entry);
+            byArtist.computeIfAbsent(song.getArtist(), artist -> new TreeSet<Entry>(POPULAR)).add(entry);
+            byYear.computeIfAbsent(song.getYear(), year -> new TreeSet<Entry>(POPULAR)).add(entry);
+            byPopularity.add(entry);
+        }
+        entry.count += delta;
+        if (entry.count <= 0) {
+            entries.remove(key);
+            removeFrom(byArtist, song.getArtist(), entry);
+            removeFrom(byYear, song.getYear(), entry);
+            byPopularity.remove(entry);
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, TreeSet<Entry>> index, K key, Entry entry) {
+        TreeSet<Entry> songs = index.get(key);
+        songs.remove(entry);
+        if (songs.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static List<Song> songsOf(TreeSet<Entry> set, int k) {
+        ArrayList<Song> songs = new ArrayList<Song>(Math.min(set.size(), Math.max(k, 0)));
+        for (Entry entry : set) {
+            if (songs.size() >= k) {
+                break;
+            }
+            songs.add(entry.song);
+        }
+        return songs;
+    }
+}
@@ -0,0 +1,178 @@
+package music;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects the metrics of a PlaylistLibrary: how many times
+ * each operation ran and how long it took, how many SongNodes were walked
+ * to find a position or a song, and how many bytes of csv were parsed.
+ *
+ * Every counter is a LongAdder or a LatencyHistogram, so threads record
+ * without locking or contending on one counter. While the metrics are
+ * disabled, recording is a single volatile read.
+ *
+ * Exporters publish the metrics, for example as text (text()) or through
+ * JMX (JmxMetricsExporter).
+ */
+public class LibraryMetrics {
+
+    /**
+     * The timed operations of a library.
+     */
+    public enum Operation {
+        CREATE_PLAYLIST, ADD_PLAYLIST, REMOVE_PLAYLIST, LOAD_ALL_PLAYLISTS,
+        SAVE_LIBRARY, LOAD_LIBRARY, INSERT_SONG, REMOVE_SONG, REMOVE_SONG_AT,
+        APPLY_BATCH, GET_SONG, ITERATE, SNAPSHOT, REVERSE_PLAYLIST, MERGE_PLAYLISTS, MERGE_ALL,
+        SHUFFLE_PLAYLIST, SORT_PLAYLIST, SET_OPERATION, QUERY
+    }
+
+    /**
+     * Publishes metrics somewhere.
+     */
+    public interface Exporter {
+        /**
+         * @param metrics the metrics to publish
+         */
+        void export(LibraryMetrics metrics);
+    }
+
+    /**
+     * The value start() returns while the metrics are disabled.
+     */
+    static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final EnumMap<Operation, LatencyHistogram> latencies =
+        new EnumMap<Operation, LatencyHistogram>(Operation.class);
+    private final LongAdder nodeHops = new LongAdder();
+    private final LongAdder bytesParsed = new LongAdder();
+    private volatile boolean enabled = true;
+
+    /**
+     * Creates enabled metrics with every counter at 0.
+     */
+    public LibraryMetrics() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * @param enabled false to stop recording, true to resume
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return true if the metrics are being recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time of an operation to pass to stop(), or
+     * NOT_TIMED if the metrics are disabled
+     */
+    long start() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records an operation that began at start.
+     *
+     * @param operation the operation
+     * @param start the value start() returned
+     */
+    void stop(Operation operation, long start) {
+        if (start != NOT_TIMED) {
+            latencies.get(operation).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param hops the number of SongNodes walked
+     */
+    void addNodeHops(long hops) {
+        if (enabled) {
+            nodeHops.add(hops);
+        }
+    }
+
+    /**
+     * @param bytes the number of csv bytes parsed
+     */
+    void addBytesParsed(long bytes) {
+        if (enabled) {
+            bytesParsed.add(bytes);
+        }
+    }
+
+    /**
+     * @param operation an operation
+     * @return the latencies of the operation, in nanoseconds
+     */
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * @return the number of SongNodes walked to find a position or a song
+     */
+    public long getNodeHops() {
+        return nodeHops.sum();
+    }
+
+    /**
+     * @return the number of csv bytes parsed by createPlaylist()
+     */
+    public long getBytesParsed() {
+        return bytesParsed.sum();
+    }
+
+    /**
+     * Sets every counter back to 0.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        nodeHops.reset();
+        bytesParsed.reset();
+    }
+
+    /**
+     * @return one line per operation that has run, with its count and its
+     * mean, median, 99th percentile and largest latency in microseconds,
+     * followed by the node hops and bytes parsed
+     */
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%-20s %12s %10s %10s %10s %10s%n",
+                "operation", "count", "mean us", "p50 us", "p99 us", "max us"));
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            text.append(String.format(Locale.ROOT, "%-20s %12d %10.1f %10.1f %10.1f %10.1f%n",
+                    operation.name().toLowerCase(Locale.ROOT), histogram.getCount(),
+                    histogram.getMean() / 1e3, histogram.getPercentile(50) / 1e3,
+                    histogram.getPercentile(99) / 1e3, histogram.getMax() / 1e3));
+        }
+        text.append(String.format(Locale.ROOT, "node hops %d%n", getNodeHops()));
+        text.append(String.format(Locale.ROOT, "bytes parsed %d%n", getBytesParsed()));
+        return text.toString();
+    }
+
+    /**
+     * @param out where to print
+     * @return an exporter that prints dump() each time it exports
+     */
+    public static Exporter text(PrintStream out) {
+        return metrics -> out.print(metrics.dump());
+    }
+}
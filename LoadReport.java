@@ -0,0 +1,109 @@
+package music;
+
+/**
+ * This class records how long each playlist file took to load and which
+ * files failed, for one call to PlaylistLibrary.loadAllPlaylists().
+ *
+ * Entry i describes filenames[i]. Each entry is written by exactly one
+ * loader thread, and the report is only read after every loader has
+ * finished.
+ */
+public class LoadReport {
+
+    private final String[] filenames;
+    private final long[] loadNanos;
+    private final RuntimeException[] failures;
+    private long wallNanos;
+
+    /**
+     * @param filenames the files being loaded
+     */
+    public LoadReport(String[] filenames) {
+        this.filenames = filenames.clone();
+        this.loadNanos = new long[filenames.length];
+        this.failures = new RuntimeException[filenames.length];
+    }
+
+    void loaded(int i, long nanos) {
+        loadNanos[i] = nanos;
+    }
+
+    void failed(int i, long nanos, RuntimeException failure) {
+        loadNanos[i] = nanos;
+        failures[i] = failure;
+    }
+
+    void finished(long nanos) {
+        wallNanos = nanos;
+    }
+
+    /**
+     * @return the number of files in the report
+     */
+    public int size() {
+        return filenames.length;
+    }
+
+    /**
+     * @param i the index of the file
+     * @return the name of file i
+     */
+    public String getFilename(int i) {
+        return filenames[i];
+    }
+
+    /**
+     * @param i the index of the file
+     * @return the time spent reading file i, in nanoseconds
+     */
+    public long getLoadNanos(int i) {
+        return loadNanos[i];
+    }
+
+    /**
+     * @param i the index of the file
+     * @return why file i could not be loaded, or null if it was loaded
+     */
+    public RuntimeException getFailure(int i) {
+        return failures[i];
+    }
+
+    /**
+     * @return the number of files that could not be loaded
+     */
+    public int getFailureCount() {
+        int count = 0;
+        for (RuntimeException failure : failures) {
+            if (failure != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the time from the start of the load until the last file was
+     * added to the library, in nanoseconds
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return one line per file with its load time, plus a summary line
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < filenames.length; i++) {
+            out.append(String.format("%8.2f ms  %s", loadNanos[i] / 1e6, filenames[i]));
+            if (failures[i] != null) {
+                out.append("  FAILED: ").append(failures[i].getMessage());
+            }
+            out.append(System.lineSeparator());
+        }
+        out.append(String.format("%d file(s), %d failed, %.2f ms total",
+                filenames.length, getFailureCount(), wallNanos / 1e6));
+        return out.toString();
+    }
+}
@@ -0,0 +1,311 @@
+package music;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * This class sorts and merges the circular linked lists of large
+ * playlists on a ForkJoinPool.
+ *
+ * A linked list can only be walked from one end, so the nodes are first
+ * copied into an array in a single pass. The array is then sorted by a
+ * parallel merge sort: each half is sorted in its own task, down to
+ * segments that are sorted with Arrays.sort(), and two sorted ranges are
+ * merged in parallel by splitting the larger one at its middle song and
+ * binary searching for the matching split of the other. The ring is then
+ * relinked in parallel.
+ *
+ * Both the sort and the merge are stable: of two songs that compare equal,
+ * the one from the earlier range, or from the first playlist, comes first.
+ *
+ * Below the threshold the work is done sequentially, by RingSort and by
+ * a plain two-way merge, since splitting a small list costs more than it
+ * saves.
+ */
+public final class ParallelRingSort {
+
+    /**
+     * The default number of songs below which the sequential path is used.
+     */
+    public static final int DEFAULT_THRESHOLD = 1 << 16;
+
+    // the smallest segment a task splits off
+    private static final int MIN_GRAIN = 1 << 13;
+
+    private ParallelRingSort() {
+    }
+
+    /**
+     * Sorts a circular linked list, relinking its nodes.
+     *
+     * @param last the last node of the list, or null if it is empty
+     * @param size the number of nodes in the list
+     * @param order the order to sort in
+     * @param pool the pool to sort on
+     * @param threshold sort sequentially below this many nodes
+     * @return the last node of the sorted list
+     */
+    public static SongNode sort(SongNode last, int size, Comparator<Song> order, ForkJoinPool pool, int threshold) {
+        if (size < Math.max(2, threshold)) {
+            return RingSort.sort(last, order);
+        }
+        SongNode[] nodes = toArray(last, size);
+        SongNode[] buffer = new SongNode[size];
+        Comparator<SongNode> byNode = (a, b) -> order.compare(a.getSong(), b.getSong());
+        int grain = grain(size, pool);
+        pool.invoke(new Sort<SongNode>(nodes, buffer, 0, size, true, byNode, grain));
+        link(nodes, pool, grain);
+        return nodes[size - 1];
+    }
+
+    /**
+     * Merges two sorted circular linked lists into a new one. The songs are
+     * copied into new nodes, and the input lists are left as they were.
+     *
+     * @param last1 the last node of the first list, or null
+     * @param size1 the number of nodes in the first list
+     * @param last2 the last node of the second list, or null
+     * @param size2 the number of nodes in the second list
+     * @param order the order both lists are sorted in; songs that compare
+     * equal are taken from the first list first
+     * @param pool the pool to merge on
+     * @param threshold merge sequentially below this many nodes in all
+     * @return the last node of the merged list, or null if both are empty
+     */
+    public static SongNode merge(SongNode last1, int size1, SongNode last2, int size2,
+                                 Comparator<Song> order, ForkJoinPool pool, int threshold) {
+        int size = size1 + size2;
+        if (size == 0) {
+            return null;
+        }
+        Song[] songs1 = songs(last1, size1);
+        Song[] songs2 = songs(last2, size2);
+        Song[] merged = new Song[size];
+        int grain = (size < threshold) ? size : grain(size, pool);
+        Merge<Song> merge = new Merge<Song>(songs1, 0, size1, songs2, 0, size2, merged, 0, order, grain);
+        if (size < threshold) {
+            merge.compute();
+        } else {
+            pool.invoke(merge);
+        }
+
+        SongNode[] nodes = new SongNode[size];
+        forRange(pool, 0, size, grain, i -> nodes[i] = new SongNode(merged[i], null));
+        link(nodes, pool, grain);
+        return nodes[size - 1];
+    }
+
+    /*
+     * Splits into about four segments per worker, but not smaller than
+     * MIN_GRAIN.
+     */
+    private static int grain(int size, ForkJoinPool pool) {
+        return Math.max(MIN_GRAIN, size / (4 * pool.getParallelism()));
+    }
+
+    private static SongNode[] toArray(SongNode last, int size) {
+        SongNode[] nodes = new SongNode[size];
+        SongNode current = last;
+        for (int i = 0; i < size; i++) {
+            current = current.getNext();
+            nodes[i] = current;
+        }
+        return nodes;
+    }
+
+    private static Song[] songs(SongNode last, int size) {
+        Song[] songs = new Song[(last == null) ? 0 : size];
+        SongNode current = last;
+        for (int i = 0; i < songs.length; i++) {
+            current = current.getNext();
+            songs[i] = current.getSong();
+        }
+        return songs;
+    }
+
+    /*
+     * Links the nodes into a ring in array order.
+     */
+    private static void link(SongNode[] nodes, ForkJoinPool pool, int grain) {
+        int n = nodes.length;
+        forRange(pool, 0, n, grain, i -> nodes[i].setNext(nodes[(i + 1 == n) ? 0 : i + 1]));
+    }
+
+    /*
+     * Runs body for every i from lo to hi - 1, splitting the range into
+     * tasks of about grain indices.
+     */
+    private static void forRange(ForkJoinPool pool, int lo, int hi, int grain, IntConsumer body) {
+        if (hi - lo <= grain) {
+            for (int i = lo; i < hi; i++) {
+                body.accept(i);
+            }
+        } else {
+            pool.invoke(new Range(lo, hi, grain, body));
+        }
+    }
+
+    private static final class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int grain;
+        private final IntConsumer body;
+
+        Range(int lo, int hi, int grain, IntConsumer body) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                for (int i = lo; i < hi; i++) {
+                    body.accept(i);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Range(lo, mid, grain, body), new Range(mid, hi, grain, body));
+        }
+    }
+
+    /*
+     * Sorts a[lo, hi), leaving the result in a if intoA, otherwise in b.
+     * The halves are sorted into the other array and merged back, so no
+     * range is ever copied twice.
+     */
+    private static final class Sort<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final T[] a;
+        private final T[] b;
+        private final int lo;
+        private final int hi;
+        private final boolean intoA;
+        private final Comparator<? super T> order;
+        private final int grain;
+
+        Sort(T[] a, T[] b, int lo, int hi, boolean intoA, Comparator<? super T> order, int grain) {
+            this.a = a;
+            this.b = b;
+            this.lo = lo;
+            this.hi = hi;
+            this.intoA = intoA;
+            this.order = order;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                Arrays.sort(a, lo, hi, order);
+                if (!intoA) {
+                    System.arraycopy(a, lo, b, lo, hi - lo);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new Sort<T>(a, b, lo, mid, !intoA, order, grain),
+                      new Sort<T>(a, b, mid, hi, !intoA, order, grain));
+            T[] from = intoA ? b : a;
+            T[] to = intoA ? a : b;
+            new Merge<T>(from, lo, mid, from, mid, hi, to, lo, order, grain).compute();
+        }
+    }
+
+    /*
+     * Merges the sorted ranges x[xLo, xHi) and y[yLo, yHi) into out from
+     * outLo, taking from x first when two elements compare equal.
+     */
+    private static final class Merge<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final T[] x;
+        private final int xLo;
+        private final int xHi;
+        private final T[] y;
+        private final int yLo;
+        private final int yHi;
+        private final T[] out;
+        private final int outLo;
+        private final Comparator<? super T> order;
+        private final int grain;
+
+        Merge(T[] x, int xLo, int xHi, T[] y, int yLo, int yHi, T[] out, int outLo,
+              Comparator<? super T> order, int grain) {
+            this.x = x;
+            this.xLo = xLo;
+            this.xHi = xHi;
+            this.y = y;
+            this.yLo = yLo;
+            this.yHi = yHi;
+            this.out = out;
+            this.outLo = outLo;
+            this.order = order;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            int xCount = xHi - xLo;
+            int yCount = yHi - yLo;
+            if (xCount + yCount <= grain) {
+                merge();
+                return;
+            }
+            int xSplit;
+            int ySplit;
+            if (xCount >= yCount) {
+                // y elements strictly before x[xSplit] go to the left half
+                xSplit = (xLo + xHi) >>> 1;
+                ySplit = search(y, yLo, yHi, x[xSplit], false);
+            } else {
+                // x elements not after y[ySplit] go to the left half
+                ySplit = (yLo + yHi) >>> 1;
+                xSplit = search(x, xLo, xHi, y[ySplit], true);
+            }
+            int rightOut = outLo + (xSplit - xLo) + (ySplit - yLo);
+            invokeAll(new Merge<T>(x, xLo, xSplit, y, yLo, ySplit, out, outLo, order, grain),
+                      new Merge<T>(x, xSplit, xHi, y, ySplit, yHi, out, rightOut, order, grain));
+        }
+
+        private void merge() {
+            int i = xLo;
+            int j = yLo;
+            int k = outLo;
+            while (i < xHi && j < yHi) {
+                out[k++] = (order.compare(y[j], x[i]) < 0) ? y[j++] : x[i++];
+            }
+            while (i < xHi) {
+                out[k++] = x[i++];
+            }
+            while (j < yHi) {
+                out[k++] = y[j++];
+            }
+        }
+
+        /*
+         * Returns the first index of a[lo, hi) whose element is after key,
+         * or, if equalBefore is false, not before key.
+         */
+        private int search(T[] a, int lo, int hi, T key, boolean equalBefore) {
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = order.compare(a[mid], key);
+                if (c < 0 || (c == 0 && equalBefore)) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package music;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * This class is an immutable playlist.
+ *
+ * The songs are kept in a persistent balanced binary tree ordered by
+ * position. insert() and remove() do not change the playlist; they return
+ * a new one that shares every subtree except the O(log n) nodes on the
+ * path to the change. A PersistentPlaylist can therefore be read from any
+ * number of threads without locking, and an old version stays valid for
+ * as long as a reader holds on to it.
+ *
+ * reversed() takes constant time: the reversed playlist shares the whole
+ * tree and reads it from the right, so position k is the song the tree
+ * holds at position size() - k + 1, as in ReversiblePlaylist.
+ *
+ * Positions start at 1, as in PlaylistLibrary.
+ */
+public final class PersistentPlaylist {
+
+    private static final class Node {
+        final Song song;
+        final Node left, right;
+        final int count;
+
+        Node(Song song, Node left, Node right) {
+            this.song = song;
+            this.left = left;
+            this.right = right;
+            this.count = 1 + count(left) + count(right);
+        }
+    }
+
+    /**
+     * The playlist with no songs.
+     */
+    public static final PersistentPlaylist EMPTY = new PersistentPlaylist(null, false);
+
+    private final Node root;
+    // true if the tree is read right to left
+    private final boolean reversed;
+
+    private PersistentPlaylist(Node root, boolean reversed) {
+        this.root = root;
+        this.reversed = reversed;
+    }
+
+    /**
+     * Copies the songs of a playlist, in order, in linear time.
+     *
+     * @param playlist the playlist to copy
+     * @return an immutable playlist with the same songs
+     */
+    public static PersistentPlaylist of(Playlist playlist) {
+        Song[] songs = new Song[playlist.getSize()];
+        PlaylistCursor.forEach(playlist, (position, song) -> songs[position - 1] = song);
+        return of(songs);
+    }
+
+    /**
+     * @param songs the songs, in order
+     * @return an immutable playlist with those songs
+     */
+    public static PersistentPlaylist of(Song[] songs) {
+        return (songs.length == 0) ? EMPTY : new PersistentPlaylist(build(songs, 0, songs.length - 1), false);
+    }
+
+    /**
+     * @return the number of songs
+     */
+    public int size() {
+        return count(root);
+    }
+
+    /**
+     * @param position from 1 to size()
+     * @return the song at that position, or null if there is none
+     */
+    public Song get(int position) {
+        if (position < 1 || position > size()) {
+            return null;
+        }
+        Node node = root;
+        int k = reversed ? size() - position + 1 : position;
+        while (true) {
+            int leftCount = count(node.left);
+            if (k <= leftCount) {
+                node = node.left;
+            } else if (k == leftCount + 1) {
+                return node.song;
+            } else {
+                k -= leftCount + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * @param position from 1 to size() + 1
+     * @param song the song to add
+     * @return a playlist with the song at that position, or this playlist
+     * if the position is out of range
+     */
+    public PersistentPlaylist insert(int position, Song song) {
+        if (position < 1 || position > size() + 1) {
+            return this;
+        }
+        // the songs before the position in reading order
+        int before = reversed ? size() - position + 1 : position - 1;
+        Node[] parts = split(root, before);
+        return new PersistentPlaylist(merge(merge(parts[0], new Node(song, null, null)), parts[1]), reversed);
+    }
+
+    /**
+     * @param position from 1 to size()
+     * @return a playlist without the song at that position, or this
+     * playlist if the position is out of range
+     */
+    public PersistentPlaylist remove(int position) {
+        if (position < 1 || position > size()) {
+            return this;
+        }
+        int before = reversed ? size() - position : position - 1;
+        Node[] parts = split(root, before);
+        Node[] rest = split(parts[1], 1);
+        return new PersistentPlaylist(merge(parts[0], rest[1]), reversed);
+    }
+
+    /**
+     * Removes a song the way PlaylistLibrary.removeSong() does: the last
+     * song if it is equal to the song, otherwise the first copy.
+     *
+     * @param song the song to remove
+     * @return a playlist without that copy of the song, or this playlist
+     * if it does not hold the song
+     */
+    public PersistentPlaylist remove(Song song) {
+        int size = size();
+        if (size > 0 && song.equals(get(size))) {
+            return remove(size);
+        }
+        int position = 0;
+        Node[] stack = new Node[32];
+        int depth = 0;
+        Node node = root;
+        while (node != null || depth > 0) {
+            while (node != null) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+                node = first(node);
+            }
+            node = stack[--depth];
+            position++;
+            if (song.equals(node.song)) {
+                return remove(position);
+            }
+            node = second(node);
+        }
+        return this;
+    }
+
+    /**
+     * @return a playlist with the songs in reverse order, in constant time
+     */
+    public PersistentPlaylist reversed() {
+        return (root == null) ? this : new PersistentPlaylist(root, !reversed);
+    }
+
+    /**
+     * Passes each song, in order, to an action.
+     *
+     * @param action the action to run on each song
+     */
+    public void forEach(Consumer<Song> action) {
+        Node[] stack = new Node[32];
+        int depth = 0;
+        Node node = root;
+        while (node != null || depth > 0) {
+            while (node != null) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+                node = first(node);
+            }
+            node = stack[--depth];
+            action.accept(node.song);
+            node = second(node);
+        }
+    }
+
+    /*
+     * The child read before a node, and the child read after it.
+     */
+    private Node first(Node node) {
+        return reversed ? node.right : node.left;
+    }
+
+    private Node second(Node node) {
+        return reversed ? node.left : node.right;
+    }
+
+    /**
+     * @return the songs, in order
+     */
+    public Song[] toArray() {
+        Song[] songs = new Song[size()];
+        int[] i = { 0 };
+        forEach(song -> songs[i[0]++] = song);
+        return songs;
+    }
+
+    /**
+     * Copies the songs into a new circular linked list, for the methods
+     * that take a Playlist.
+     *
+     * @return a mutable playlist with the same songs
+     */
+    public Playlist toPlaylist() {
+        SongNode[] last = { null };
+        forEach(song -> {
+            SongNode node = new SongNode(song, null);
+            if (last[0] == null) {
+                node.setNext(node);
+            } else {
+                node.setNext(last[0].getNext());
+                last[0].setNext(node);
+            }
+            last[0] = node;
+        });
+        return new Playlist(last[0], size());
+    }
+
+    private static int count(Node node) {
+        return (node == null) ? 0 : node.count;
+    }
+
+    private static Node build(Song[] songs, int lo, int hi) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        return new Node(songs[mid], build(songs, lo, mid - 1), build(songs, mid + 1, hi));
+    }
+
+    /*
+     * Splits a tree into its first k songs and the rest, copying only the
+     * nodes on the path.
+     */
+    private static Node[] split(Node node, int k) {
+        Node[] parts = new Node[2];
+        if (node == null) {
+            return parts;
+        }
+        if (count(node.left) >= k) {
+            Node[] sub = split(node.left, k);
+            parts[0] = sub[0];
+            parts[1] = new Node(node.song, sub[1], node.right);
+        } else {
+            Node[] sub = split(node.right, k - count(node.left) - 1);
+            parts[0] = new Node(node.song, node.left, sub[0]);
+            parts[1] = sub[1];
+        }
+        return parts;
+    }
+
+    /*
+     * Joins two trees, every song of a before every song of b, choosing
+     * the root with probability proportional to subtree size.
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (ThreadLocalRandom.current().nextInt(a.count + b.count) < a.count) {
+            return new Node(a.song, a.left, merge(a.right, b));
+        }
+        return new Node(b.song, merge(a, b.left), b.right);
+    }
+}
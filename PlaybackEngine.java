@@ -0,0 +1,306 @@
+package music;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class plays a queue of songs without gaps between them.
+ *
+ * A decoder thread reads the audio of the upcoming songs ahead of time
+ * into a bounded buffer of at most lookahead tracks, and a player thread
+ * takes each decoded track from the buffer and writes it to an AudioSink
+ * as soon as the previous one has been written. Songs with no link, and
+ * links that cannot be decoded, are skipped at once. If the decoder fails
+ * with an Error, the tracks already decoded are played and playback ends;
+ * if the sink throws, both threads stop. Either way the engine can play
+ * again.
+ *
+ * The decoder and the sink are pluggable: the defaults read files with
+ * StdAudio.read() and play them with StdAudio.play(), and NULL_SINK
+ * discards the samples so the engine can run headless, for example to
+ * check that every link of a library decodes.
+ *
+ * The engine counts the tracks played, skipped and failed, and underruns:
+ * times the player was ready for the next track before the decoder had
+ * finished it.
+ */
+public class PlaybackEngine {
+
+    /**
+     * Reads the samples of an audio file.
+     */
+    public interface Decoder {
+        /**
+         * @param link the file to read
+         * @return the samples, between -1.0 and +1.0
+         */
+        double[] decode(String link);
+    }
+
+    /**
+     * Receives the samples of each track, in order.
+     */
+    public interface AudioSink {
+        /**
+         * Plays samples, returning once they have been handed to the
+         * device.
+         *
+         * @param samples the samples to play
+         */
+        void play(double[] samples);
+    }
+
+    /**
+     * Is told which song is playing.
+     */
+    public interface Listener {
+        /**
+         * @param song the song whose samples are being written to the sink
+         */
+        void nowPlaying(Song song);
+    }
+
+    /**
+     * Decodes with StdAudio.read().
+     */
+    public static final Decoder STD_AUDIO_DECODER = StdAudio::read;
+
+    /**
+     * Plays with StdAudio.play().
+     */
+    public static final AudioSink STD_AUDIO_SINK = StdAudio::play;
+
+    /**
+     * Discards every sample.
+     */
+    public static final AudioSink NULL_SINK = samples -> { };
+
+    private static final Listener NO_LISTENER = song -> { };
+
+    /**
+     * A decoded song; END marks the end of the queue.
+     */
+    private static final class Track {
+        static final Track END = new Track(null, null);
+
+        final Song song;
+        final double[] samples;
+
+        Track(Song song, double[] samples) {
+            this.song = song;
+            this.samples = samples;
+        }
+    }
+
+    private final Decoder decoder;
+    private final AudioSink sink;
+    private final int lookahead;
+    private volatile Listener listener = NO_LISTENER;
+
+    private BlockingQueue<Track> buffer;
+    private Thread decoderThread;
+    private Thread playerThread;
+
+    private final AtomicLong played = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong underruns = new AtomicLong();
+
+    /**
+     * Creates an engine that plays through StdAudio, decoding up to two
+     * tracks ahead.
+     */
+    public PlaybackEngine() {
+        this(STD_AUDIO_DECODER, STD_AUDIO_SINK, 2);
+    }
+
+    /**
+     * @param decoder reads the audio of each link
+     * @param sink plays the decoded tracks
+     * @param lookahead the most decoded tracks waiting to be played
+     */
+    public PlaybackEngine(Decoder decoder, AudioSink sink, int lookahead) {
+        if (lookahead < 1) {
+            throw new IllegalArgumentException("lookahead must be at least 1");
+        }
+        this.decoder = decoder;
+        this.sink = sink;
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * @param listener is told as each song starts playing, or null for
+     * none
+     */
+    public void setListener(Listener listener) {
+        this.listener = (listener == null) ? NO_LISTENER : listener;
+    }
+
+    /**
+     * Starts playing songs in the background and returns at once.
+     *
+     * @param songs the songs to play, in order
+     * @param repeats the number of times to play the songs; like
+     * PlaylistLibrary.playPlaylist(), they are always played at least once
+     * @throws IllegalStateException if the engine is already playing
+     */
+    public synchronized void play(List<Song> songs, int repeats) {
+        if (isPlaying()) {
+            throw new IllegalStateException("Already playing");
+        }
+        buffer = new ArrayBlockingQueue<Track>(lookahead);
+        BlockingQueue<Track> queue = buffer;
+        int passes = Math.max(1, repeats);
+        Thread decoding = new Thread(() -> decode(songs, passes, queue), "playback-decoder");
+        decoderThread = decoding;
+        playerThread = new Thread(() -> play(queue, decoding), "playback-player");
+        decoderThread.setDaemon(true);
+        playerThread.setDaemon(true);
+        decoderThread.start();
+        playerThread.start();
+    }
+
+    /**
+     * Stops playing; the track being written to the sink may finish first.
+     */
+    public synchronized void stop() {
+        if (decoderThread != null) {
+            decoderThread.interrupt();
+            playerThread.interrupt();
+        }
+    }
+
+    /**
+     * Waits until every song has been played, or playback was stopped.
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public void await() throws InterruptedException {
+        Thread player;
+        synchronized (this) {
+            player = playerThread;
+        }
+        if (player != null) {
+            player.join();
+        }
+    }
+
+    /**
+     * @return true if songs are still being played
+     */
+    public synchronized boolean isPlaying() {
+        return playerThread != null && playerThread.isAlive();
+    }
+
+    /**
+     * @return the number of decoded tracks waiting to be played
+     */
+    public synchronized int getQueueDepth() {
+        return (buffer == null) ? 0 : buffer.size();
+    }
+
+    /**
+     * @return the number of tracks written to the sink
+     */
+    public long getTracksPlayed() {
+        return played.get();
+    }
+
+    /**
+     * @return the number of songs skipped because they have no link
+     */
+    public long getTracksSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of songs skipped because their link could not be
+     * decoded
+     */
+    public long getDecodeFailures() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of times the player had to wait for the decoder
+     */
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    private void decode(List<Song> songs, int passes, BlockingQueue<Track> queue) {
+        try {
+            for (int pass = 0; pass < passes; pass++) {
+                for (Song song : songs) {
+                    String link = song.getLink();
+                    if (link == null || link.isEmpty()) {
+                        skipped.incrementAndGet();
+                        continue;
+                    }
+                    double[] samples;
+                    try {
+                        samples = decoder.decode(link);
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        continue;
+                    }
+                    queue.put(new Track(song, samples));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // sent even when decode() throws an Error, such as an
+            // OutOfMemoryError, so the player never waits for a decoder
+            // that is gone
+            end(queue);
+        }
+    }
+
+    /*
+     * Tells the player there are no more tracks, unless the decoder was
+     * interrupted: then playback was stopped, or the player has died, and
+     * nobody is waiting for the end.
+     */
+    private static void end(BlockingQueue<Track> queue) {
+        if (Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        try {
+            queue.put(Track.END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void play(BlockingQueue<Track> queue, Thread decoding) {
+        boolean started = false;
+        try {
+            while (true) {
+                Track track = queue.poll();
+                boolean waited = (track == null);
+                if (waited) {
+                    track = queue.take();
+                }
+                if (track == Track.END) {
+                    return;
+                }
+                if (waited && started) {
+                    underruns.incrementAndGet();
+                }
+                started = true;
+                listener.nowPlaying(track.song);
+                sink.play(track.samples);
+                played.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // if the sink threw, the decoder may be waiting for room in
+            // the queue; after END it has already finished
+            decoding.interrupt();
+        }
+    }
+}
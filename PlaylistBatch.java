@@ -0,0 +1,423 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+
+/**
+ * This class is a list of edits to apply to one playlist at once with
+ * PlaylistLibrary.applyBatch().
+ *
+ * An edit is either insert(position, song), with the same meaning as
+ * insertSong(), or remove(song), with the same meaning as removeSong().
+ * The batch has exactly the effect of making those calls one after the
+ * other, in order, except that it is all or nothing: if any edit would
+ * fail (a position out of range, or a song that is not there to remove),
+ * the playlist is left unchanged.
+ *
+ * Instead of walking the ring once per edit, the batch is planned on a
+ * model of the playlist: a treap of pieces, each either a run of the
+ * playlist's original songs or one inserted song. Inserting or removing
+ * splits a run, so the model has at most two pieces per edit however long
+ * the playlist is, and each edit takes logarithmic time. Only once every
+ * edit has been checked are the SongNodes relinked, in a single pass.
+ */
+public class PlaylistBatch {
+
+    private static final int INSERT = 0;
+    private static final int REMOVE = 1;
+
+    private final ArrayList<Integer> kinds = new ArrayList<Integer>();
+    private final ArrayList<Integer> positions = new ArrayList<Integer>();
+    private final ArrayList<Song> songs = new ArrayList<Song>();
+
+    /**
+     * Adds an insert to the batch.
+     *
+     * @param position the position of the new song when this edit is
+     * applied; 1 is the first position
+     * @param song the song to insert
+     * @return this batch
+     */
+    public PlaylistBatch insert(int position, Song song) {
+        kinds.add(INSERT);
+        positions.add(position);
+        songs.add(song);
+        return this;
+    }
+
+    /**
+     * Adds a remove to the batch. As in removeSong(), the last song is
+     * removed if it matches, otherwise the first song that does.
+     *
+     * @param song the song to remove
+     * @return this batch
+     */
+    public PlaylistBatch remove(Song song) {
+        kinds.add(REMOVE);
+        positions.add(0);
+        songs.add(song);
+        return this;
+    }
+
+    /**
+     * @return the number of edits in the batch
+     */
+    public int size() {
+        return kinds.size();
+    }
+
+    /**
+     * @param i an edit, from 0 to size()-1
+     * @return true if the edit is an insert, false if it is a remove
+     */
+    public boolean isInsert(int i) {
+        return kinds.get(i) == INSERT;
+    }
+
+    /**
+     * @param i an edit
+     * @return the position of an insert, or 0 for a remove
+     */
+    public int getPosition(int i) {
+        return positions.get(i);
+    }
+
+    /**
+     * @param i an edit
+     * @return the song inserted or removed
+     */
+    public Song getSong(int i) {
+        return songs.get(i);
+    }
+
+    /**
+     * The outcome of planning a batch.
+     */
+    static final class Result {
+        /** the SongNodes of the edited playlist, in order */
+        SongNode[] order;
+        /** the songs the batch added to the playlist */
+        final ArrayList<Song> added = new ArrayList<Song>();
+        /** the songs the batch took out of the playlist */
+        final ArrayList<Song> removed = new ArrayList<Song>();
+    }
+
+    /**
+     * Plans the batch against the SongNodes of a playlist, in order,
+     * without changing them.
+     *
+     * @param nodes the SongNodes of the playlist, first to last
+     * @param registry canonicalizes inserted songs, or null
+     * @return the nodes of the edited playlist, new ones included, or null
+     * if an edit would fail
+     */
+    Result plan(SongNode[] nodes, SongRegistry registry) {
+        Model model = new Model(nodes);
+        for (int i = 0; i < size(); i++) {
+            Song song = songs.get(i);
+            if (kinds.get(i) == REMOVE) {
+                model.target(song);
+            }
+        }
+        model.indexTargets();
+
+        for (int i = 0; i < size(); i++) {
+            Song song = songs.get(i);
+            boolean applied;
+            if (kinds.get(i) == INSERT) {
+                applied = model.insert(positions.get(i), (registry == null) ? song : registry.canonical(song));
+            } else {
+                applied = model.remove(song);
+            }
+            if (!applied) {
+                return null;
+            }
+        }
+        return model.result();
+    }
+
+    /**
+     * A run of original songs [from, to), or one inserted song.
+     */
+    private static final class Piece {
+        Piece left, right, parent;
+        final int priority;
+        final Song song;
+        int from, to;
+        int size;
+        int maxOriginal;
+
+        Piece(int priority, Song song, int from, int to) {
+            this.priority = priority;
+            this.song = song;
+            this.from = from;
+            this.to = to;
+            update(this);
+        }
+
+        int length() {
+            return (song != null) ? 1 : to - from;
+        }
+    }
+
+    /**
+     * The songs a remove looks for: where its copies are among the
+     * original songs, and which inserted pieces hold it.
+     */
+    private static final class Target {
+        int[] originals = new int[4];
+        int count;
+        // alive originals are originals[lo..hi]: removes only ever take
+        // the first or the last copy
+        int lo;
+        int hi = -1;
+        TreeSet<Piece> inserted;
+    }
+
+    /**
+     * The playlist as the batch edits it.
+     */
+    private static final class Model {
+        private final SongNode[] nodes;
+        private final SplittableRandom random = new SplittableRandom();
+        private final HashMap<SongKey, Target> targets = new HashMap<SongKey, Target>();
+        private final Result result = new Result();
+        private Piece root;
+
+        Model(SongNode[] nodes) {
+            this.nodes = nodes;
+            if (nodes.length > 0) {
+                root = new Piece(random.nextInt(), null, 0, nodes.length);
+            }
+        }
+
+        void target(Song song) {
+            targets.computeIfAbsent(new SongKey(song), key -> {
+                Target target = new Target();
+                target.inserted = new TreeSet<Piece>((a, b) -> Integer.compare(rank(a), rank(b)));
+                return target;
+            });
+        }
+
+        /*
+         * Finds the original copies of every song the batch removes.
+         */
+        void indexTargets() {
+            if (targets.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                Target target = targets.get(new SongKey(nodes[i].getSong()));
+                if (target != null) {
+                    if (target.count == target.originals.length) {
+                        int[] bigger = new int[target.count * 2];
+                        System.arraycopy(target.originals, 0, bigger, 0, target.count);
+                        target.originals = bigger;
+                    }
+                    target.originals[target.count++] = i;
+                    target.hi = target.count - 1;
+                }
+            }
+        }
+
+        boolean insert(int position, Song song) {
+            if (position < 1 || position > size(root) + 1) {
+                return false;
+            }
+            Piece piece = new Piece(random.nextInt(), song, -1, -1);
+            Piece[] parts = split(root, position - 1);
+            root = merge(merge(parts[0], piece), parts[1]);
+            root.parent = null;
+            Target target = targets.get(new SongKey(song));
+            if (target != null) {
+                target.inserted.add(piece);
+            }
+            return true;
+        }
+
+        boolean remove(Song song) {
+            int size = size(root);
+            if (size == 0) {
+                return false;
+            }
+            Target target = targets.get(new SongKey(song));
+
+            Piece last = root;
+            while (last.right != null) {
+                last = last.right;
+            }
+            Song lastSong = (last.song != null) ? last.song : nodes[last.to - 1].getSong();
+            if (PlaylistLibrary.sameSong(song, lastSong)) {
+                if (last.song != null) {
+                    target.inserted.remove(last);
+                } else {
+                    target.hi--;
+                }
+                delete(size - 1, lastSong);
+                return true;
+            }
+
+            int originalRank = (target.lo <= target.hi) ? rankOfOriginal(target.originals[target.lo]) : -1;
+            Piece inserted = target.inserted.isEmpty() ? null : target.inserted.first();
+            int insertedRank = (inserted == null) ? -1 : rank(inserted);
+            if (originalRank < 0 && insertedRank < 0) {
+                return false;
+            }
+            if (insertedRank < 0 || (originalRank >= 0 && originalRank < insertedRank)) {
+                Song removed = nodes[target.originals[target.lo]].getSong();
+                target.lo++;
+                delete(originalRank, removed);
+            } else {
+                target.inserted.remove(inserted);
+                delete(insertedRank, inserted.song);
+            }
+            return true;
+        }
+
+        /*
+         * Deletes the song at a 0-based rank, noting it as removed if it
+         * was one of the original songs.
+         */
+        private void delete(int rank, Song song) {
+            Piece[] before = split(root, rank);
+            Piece[] after = split(before[1], 1);
+            if (after[0].song == null) {
+                result.removed.add(song);
+            }
+            root = merge(before[0], after[1]);
+            if (root != null) {
+                root.parent = null;
+            }
+        }
+
+        Result result() {
+            SongNode[] order = new SongNode[size(root)];
+            int next = 0;
+            ArrayList<Piece> stack = new ArrayList<Piece>();
+            Piece current = root;
+            while (current != null || !stack.isEmpty()) {
+                while (current != null) {
+                    stack.add(current);
+                    current = current.left;
+                }
+                current = stack.remove(stack.size() - 1);
+                if (current.song != null) {
+                    order[next++] = new SongNode(current.song, null);
+                    result.added.add(current.song);
+                } else {
+                    System.arraycopy(nodes, current.from, order, next, current.to - current.from);
+                    next += current.to - current.from;
+                }
+                current = current.right;
+            }
+            result.order = order;
+            return result;
+        }
+
+        /*
+         * The 0-based rank of the first song of a piece, found by climbing
+         * to the root.
+         */
+        private int rank(Piece piece) {
+            int rank = size(piece.left);
+            while (piece.parent != null) {
+                if (piece == piece.parent.right) {
+                    rank += size(piece.parent.left) + piece.parent.length();
+                }
+                piece = piece.parent;
+            }
+            return rank;
+        }
+
+        /*
+         * The 0-based rank of an original song that is still there. The
+         * original songs keep their order, so the run holding it is found
+         * by descending on the greatest original index of each subtree.
+         */
+        private int rankOfOriginal(int index) {
+            Piece piece = root;
+            int rank = 0;
+            while (true) {
+                if (piece.left != null && piece.left.maxOriginal >= index) {
+                    piece = piece.left;
+                    continue;
+                }
+                rank += size(piece.left);
+                if (piece.song == null && index >= piece.from && index < piece.to) {
+                    return rank + index - piece.from;
+                }
+                rank += piece.length();
+                piece = piece.right;
+            }
+        }
+
+        /*
+         * Splits a treap into its first k songs and the rest, cutting a
+         * run in two if the split falls inside it.
+         */
+        private Piece[] split(Piece piece, int k) {
+            if (piece == null) {
+                return new Piece[2];
+            }
+            int leftSize = size(piece.left);
+            if (k <= leftSize) {
+                Piece[] parts = split(piece.left, k);
+                piece.left = parts[1];
+                update(piece);
+                parts[1] = piece;
+                return parts;
+            }
+            if (k >= leftSize + piece.length()) {
+                Piece[] parts = split(piece.right, k - leftSize - piece.length());
+                piece.right = parts[0];
+                update(piece);
+                parts[0] = piece;
+                return parts;
+            }
+            int cut = piece.from + k - leftSize;
+            Piece tail = new Piece(random.nextInt(), null, cut, piece.to);
+            piece.to = cut;
+            Piece rest = merge(tail, piece.right);
+            piece.right = null;
+            update(piece);
+            return new Piece[] { piece, rest };
+        }
+
+        private Piece merge(Piece a, Piece b) {
+            if (a == null) {
+                return b;
+            }
+            if (b == null) {
+                return a;
+            }
+            if (a.priority > b.priority) {
+                a.right = merge(a.right, b);
+                update(a);
+                return a;
+            }
+            b.left = merge(a, b.left);
+            update(b);
+            return b;
+        }
+    }
+
+    private static int size(Piece piece) {
+        return (piece == null) ? 0 : piece.size;
+    }
+
+    private static void update(Piece piece) {
+        piece.size = piece.length() + size(piece.left) + size(piece.right);
+        int max = (piece.song == null) ? piece.to - 1 : -1;
+        if (piece.left != null) {
+            piece.left.parent = piece;
+            max = Math.max(max, piece.left.maxOriginal);
+        }
+        if (piece.right != null) {
+            piece.right.parent = piece;
+            max = Math.max(max, piece.right.maxOriginal);
+        }
+        piece.maxOriginal = max;
+    }
+}
@@ -0,0 +1,315 @@
+package music;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class bounds how many songs of a library's csv playlists are held
+ * in memory at once.
+ *
+ * With a cache set (see PlaylistLibrary.setPlaylistCache()), every
+ * playlist createPlaylist() reads is a CachedPlaylist. Its songs stay in
+ * memory while they fit in the budget; when they do not, the playlists
+ * used least recently are evicted, keeping only their size and filename,
+ * and are read from their file again the next time they are used.
+ *
+ * Only playlists that still match their file can be evicted. A playlist
+ * that has been changed is pinned in memory, and its songs do not count
+ * against the budget; they are reported by getPinnedSongs(). A playlist
+ * is also never evicted while it is in use: the library acquires each
+ * playlist an operation walks and releases it when the operation is done,
+ * so an operation never has a playlist read again under it. While
+ * playlists are in use the cache may go over its budget; it evicts back
+ * down to it as they are released.
+ *
+ * The budget is a number of songs rather than bytes: the size of a Song
+ * depends on its strings, which a SongRegistry may share between songs,
+ * while the number of SongNodes is exact.
+ *
+ * All methods are thread safe. The cache is locked only to update its
+ * bookkeeping: an evicted playlist is read from its file without the
+ * lock, so a miss does not hold up threads using other playlists, and
+ * threads that need a playlist while it is being read wait for that one
+ * read rather than starting their own.
+ */
+public class PlaylistCache {
+
+    private final long maxSongs;
+
+    // clean resident playlists, least recently used first
+    private final LinkedHashMap<CachedPlaylist, Boolean> lru =
+        new LinkedHashMap<CachedPlaylist, Boolean>(16, 0.75f, true);
+    private long residentSongs;
+    private long pinnedSongs;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxSongs the most songs of clean playlists to keep in memory
+     */
+    public PlaylistCache(long maxSongs) {
+        if (maxSongs < 0) {
+            throw new IllegalArgumentException("maxSongs must not be negative: " + maxSongs);
+        }
+        this.maxSongs = maxSongs;
+    }
+
+    /**
+     * Wraps the songs just read from a file in a CachedPlaylist, evicting
+     * other playlists if they no longer fit.
+     *
+     * @param filename the file the songs were read from
+     * @param loader reads the file again
+     * @param songs the songs read
+     * @return the cached playlist
+     */
+    synchronized CachedPlaylist add(String filename, LazyPlaylist.Loader loader, Playlist songs) {
+        CachedPlaylist playlist = new CachedPlaylist(this, filename, loader, songs);
+        lru.put(playlist, Boolean.TRUE);
+        residentSongs += playlist.getSize();
+        evictBeyondBudget(playlist);
+        return playlist;
+    }
+
+    /**
+     * Wraps songs that have not been read yet in a CachedPlaylist, which
+     * reads them the first time it is used.
+     *
+     * @param filename the file the songs are read from
+     * @param loader reads the songs
+     * @param size the number of songs the loader reads
+     * @return the cached playlist, not yet resident
+     */
+    synchronized CachedPlaylist addUnloaded(String filename, LazyPlaylist.Loader loader, int size) {
+        return new CachedPlaylist(this, filename, loader, size);
+    }
+
+    /**
+     * Returns the last SongNode of a playlist, reading the playlist from
+     * its file if it was evicted.
+     *
+     * @param playlist a playlist of this cache
+     * @return its last node
+     */
+    SongNode access(CachedPlaylist playlist) {
+        synchronized (this) {
+            if (playlist.dirty()) {
+                return playlist.last();
+            }
+            if (playlist.resident()) {
+                hits++;
+                lru.get(playlist);
+                return playlist.last();
+            }
+        }
+        return load(playlist).getLast();
+    }
+
+    /**
+     * Marks a playlist as in use, reading it first if it was evicted, so
+     * it is not evicted until it is released as many times as it was
+     * acquired.
+     *
+     * @param playlist a playlist of this cache
+     */
+    void acquire(CachedPlaylist playlist) {
+        synchronized (this) {
+            playlist.acquired();
+        }
+        // once read, the playlist stays resident as it is in use
+        access(playlist);
+    }
+
+    /**
+     * Ends a use of a playlist begun by acquire(), evicting other
+     * playlists if the cache went over its budget while it was in use.
+     *
+     * @param playlist a playlist of this cache
+     */
+    synchronized void release(CachedPlaylist playlist) {
+        playlist.released();
+        evictBeyondBudget(playlist);
+    }
+
+    /**
+     * Pins a playlist that is about to be changed, reading it first if it
+     * was evicted.
+     *
+     * @param playlist a playlist of this cache
+     */
+    void modified(CachedPlaylist playlist) {
+        while (true) {
+            synchronized (this) {
+                if (playlist.dirty()) {
+                    return;
+                }
+                if (playlist.resident()) {
+                    lru.remove(playlist);
+                    residentSongs -= playlist.getSize();
+                    playlist.markDirty();
+                    // counted at the size it had when pinned
+                    pinnedSongs += playlist.getSize();
+                    return;
+                }
+            }
+            // another thread may evict it again before it is pinned
+            load(playlist);
+        }
+    }
+
+    /**
+     * Evicts every clean playlist that is not in use.
+     */
+    public synchronized void clear() {
+        evictBeyondBudget(null, 0);
+    }
+
+    /**
+     * @return the most songs of clean playlists kept in memory
+     */
+    public long getMaxSongs() {
+        return maxSongs;
+    }
+
+    /**
+     * @return the number of songs of clean playlists in memory
+     */
+    public synchronized long getResidentSongs() {
+        return residentSongs;
+    }
+
+    /**
+     * @return the number of songs, when they were pinned, of playlists
+     * pinned in memory because they were changed
+     */
+    public synchronized long getPinnedSongs() {
+        return pinnedSongs;
+    }
+
+    /**
+     * @return the number of clean playlists in memory
+     */
+    public synchronized int getResidentPlaylists() {
+        return lru.size();
+    }
+
+    /**
+     * @return the number of times a playlist was used while in memory
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of times a playlist had to be read from its file
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of times a playlist was evicted
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return hits divided by hits and misses, or 0 before any use
+     */
+    public synchronized double getHitRate() {
+        long uses = hits + misses;
+        return (uses == 0) ? 0 : (double) hits / uses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d songs in %d playlists, %d pinned, %d hits, %d misses, %d evictions",
+                residentSongs, maxSongs, lru.size(), pinnedSongs, hits, misses, evictions);
+    }
+
+    /*
+     * Makes an evicted playlist resident, reading its file without holding
+     * the lock. If another thread is already reading it, waits for that
+     * read. Returns the songs read, which may have been evicted again by
+     * the time this returns.
+     */
+    private Playlist load(CachedPlaylist playlist) {
+        CompletableFuture<Playlist> loading;
+        boolean reader;
+        synchronized (this) {
+            loading = playlist.loading();
+            reader = (loading == null);
+            if (reader) {
+                misses++;
+                loading = new CompletableFuture<Playlist>();
+                playlist.setLoading(loading);
+            }
+        }
+        if (!reader) {
+            return await(loading);
+        }
+
+        Playlist songs;
+        try {
+            songs = playlist.read();
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                playlist.setLoading(null);
+            }
+            loading.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            playlist.setLoading(null);
+            playlist.install(songs);
+            lru.put(playlist, Boolean.TRUE);
+            residentSongs += playlist.getSize();
+            evictBeyondBudget(playlist);
+        }
+        loading.complete(songs);
+        return songs;
+    }
+
+    private static Playlist await(CompletableFuture<Playlist> loading) {
+        try {
+            return loading.join();
+        } catch (CompletionException e) {
+            // the reader's own exception, as it was thrown to the reader
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void evictBeyondBudget(CachedPlaylist keep) {
+        evictBeyondBudget(keep, maxSongs);
+    }
+
+    /*
+     * Evicts the least recently used clean playlists, other than keep and
+     * those in use, until at most budget songs are resident.
+     */
+    private void evictBeyondBudget(CachedPlaylist keep, long budget) {
+        Iterator<CachedPlaylist> eldest = lru.keySet().iterator();
+        while (residentSongs > budget && eldest.hasNext()) {
+            CachedPlaylist playlist = eldest.next();
+            if (playlist == keep || playlist.inUse()) {
+                continue;
+            }
+            eldest.remove();
+            residentSongs -= playlist.getSize();
+            playlist.evict();
+            evictions++;
+        }
+    }
+}
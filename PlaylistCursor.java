@@ -0,0 +1,125 @@
+package music;
+
+import java.util.NoSuchElementException;
+
+/**
+ * This class walks the songs of a playlist in order, from the first song
+ * to the last, without walking past the end of the circular linked list.
+ *
+ * A cursor allocates nothing as it moves, and reset() points it at another
+ * playlist, so one cursor can be reused for any number of walks:
+ *
+ *      PlaylistCursor cursor = new PlaylistCursor();
+ *      for (Playlist playlist : library.getPlaylists()) {
+ *          cursor.reset(playlist);
+ *          while (cursor.hasNext()) {
+ *              Song song = cursor.next();
+ *              ...
+ *          }
+ *      }
+ *
+ * The cursor reads the last node and size of the playlist once, in
+ * reset(), and visits exactly that many songs. The playlist must not be
+ * changed while it is being walked.
+ */
+public final class PlaylistCursor {
+
+    /**
+     * Receives each song of a playlist with its position.
+     */
+    public interface Visitor {
+        /**
+         * @param position the 1-based position of the song
+         * @param song the song
+         */
+        void visit(int position, Song song);
+    }
+
+    private SongNode current;
+    private int position;
+    private int size;
+
+    /**
+     * Creates a cursor over no songs; call reset() to walk a playlist.
+     */
+    public PlaylistCursor() {
+    }
+
+    /**
+     * @param playlist the playlist to walk
+     */
+    public PlaylistCursor(Playlist playlist) {
+        reset(playlist);
+    }
+
+    /**
+     * Moves the cursor to the start of a playlist.
+     *
+     * @param playlist the playlist to walk
+     * @return this cursor
+     */
+    public PlaylistCursor reset(Playlist playlist) {
+        current = playlist.getLast();
+        size = (current == null) ? 0 : playlist.getSize();
+        position = 0;
+        return this;
+    }
+
+    /**
+     * @return true if there are songs left to visit
+     */
+    public boolean hasNext() {
+        return position < size;
+    }
+
+    /**
+     * @return the next song of the playlist
+     * @throws NoSuchElementException if every song has been visited
+     */
+    public Song next() {
+        return nextNode().getSong();
+    }
+
+    /**
+     * @return the SongNode of the next song of the playlist
+     * @throws NoSuchElementException if every song has been visited
+     */
+    public SongNode nextNode() {
+        if (position == size) {
+            throw new NoSuchElementException();
+        }
+        current = current.getNext();
+        position++;
+        return current;
+    }
+
+    /**
+     * @return the position of the song last returned, or 0 before the
+     * first song
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * @return the number of songs left to visit
+     */
+    public int remaining() {
+        return size - position;
+    }
+
+    /**
+     * Passes every song of a playlist, in order, to a visitor.
+     *
+     * @param playlist the playlist to walk
+     * @param visitor receives each song
+     */
+    public static void forEach(Playlist playlist, Visitor visitor) {
+        SongNode current = playlist.getLast();
+        int size = (current == null) ? 0 : playlist.getSize();
+        for (int i = 1; i <= size; i++) {
+            current = current.getNext();
+            visitor.visit(i, current.getSong());
+        }
+    }
+}
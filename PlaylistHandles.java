@@ -0,0 +1,226 @@
+package music;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * This class gives the playlists of a library stable handles: long ids
+ * that keep naming the same playlist while other playlists are added,
+ * removed or merged around it, unlike an index into the library.
+ *
+ * Handles live in an open-addressing hash table of primitive longs, with
+ * linear probing and backward-shift deletion, so looking one up allocates
+ * nothing. Beside each playlist the table keeps a hint: the index the
+ * playlist had when last seen. A lookup checks the hint against the
+ * library in constant time; only when the library has shifted under it is
+ * the library scanned, which refreshes the hint of every handle at once
+ * and forgets the handles of playlists that have left the library.
+ *
+ * Handles are numbered from 1 and never reused; 0 is never a handle.
+ */
+class PlaylistHandles {
+
+    /**
+     * Returned by indexOf() for a handle whose playlist is gone.
+     */
+    static final int MISSING = -1;
+
+    private static final long EMPTY = 0;
+
+    private long[] keys = new long[16];
+    private Playlist[] playlists = new Playlist[16];
+    private int[] hints = new int[16];
+    private int[] scans = new int[16];
+    private int count;
+
+    private final IdentityHashMap<Playlist, Long> handles = new IdentityHashMap<Playlist, Long>();
+    private long nextHandle = 1;
+    private int scan;
+
+    /**
+     * Returns the handle of the playlist at an index, giving it one if it
+     * has none yet.
+     *
+     * @param library the playlists of the library
+     * @param playlistIndex the index of the playlist
+     * @return its handle
+     */
+    synchronized long handleOf(List<Playlist> library, int playlistIndex) {
+        Playlist playlist = library.get(playlistIndex);
+        Long handle = handles.get(playlist);
+        if (handle != null) {
+            hints[slot(handle)] = playlistIndex;
+            return handle;
+        }
+        long newHandle = nextHandle++;
+        handles.put(playlist, newHandle);
+        put(newHandle, playlist, playlistIndex);
+        return newHandle;
+    }
+
+    /**
+     * Finds the current index of a playlist by its handle.
+     *
+     * @param library the playlists of the library
+     * @param handle the handle
+     * @return the index of the playlist, or MISSING if it is no longer in
+     * the library or the handle is unknown
+     */
+    synchronized int indexOf(List<Playlist> library, long handle) {
+        if (handle == EMPTY) {
+            return MISSING;
+        }
+        int slot = slot(handle);
+        if (slot < 0) {
+            return MISSING;
+        }
+        int hint = hints[slot];
+        if (library != null && hint < library.size() && library.get(hint) == playlists[slot]) {
+            return hint;
+        }
+        rescan(library);
+        slot = slot(handle);
+        return (slot < 0) ? MISSING : hints[slot];
+    }
+
+    /**
+     * Moves the handle of a playlist, if it has one, to the playlist that
+     * takes its place in the library, such as a merged playlist or the
+     * same songs converted to another kind of Playlist.
+     *
+     * @param playlist the playlist being replaced
+     * @param replacement the playlist replacing it
+     */
+    synchronized void replace(Playlist playlist, Playlist replacement) {
+        Long handle = handles.remove(playlist);
+        if (handle == null || handles.containsKey(replacement)) {
+            return;
+        }
+        handles.put(replacement, handle);
+        playlists[slot(handle)] = replacement;
+    }
+
+    /**
+     * Drops every handle, for when the library's playlists are all
+     * replaced. Handles are still never reused.
+     */
+    synchronized void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(playlists, null);
+        count = 0;
+        handles.clear();
+    }
+
+    /**
+     * @return the number of live handles
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    /*
+     * Refreshes the hint of every playlist in the library, then drops the
+     * handles whose playlists were not found.
+     */
+    private void rescan(List<Playlist> library) {
+        scan++;
+        if (library != null) {
+            for (int i = 0; i < library.size(); i++) {
+                Long handle = handles.get(library.get(i));
+                if (handle != null) {
+                    int slot = slot(handle);
+                    hints[slot] = i;
+                    scans[slot] = scan;
+                }
+            }
+        }
+        int i = 0;
+        while (i < keys.length) {
+            if (keys[i] != EMPTY && scans[i] != scan) {
+                handles.remove(playlists[i]);
+                delete(i);
+                // delete() may have shifted another entry into slot i
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private static int hash(long handle) {
+        long h = handle * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /*
+     * Returns the slot of a handle, or -1 if it is not in the table.
+     */
+    private int slot(long handle) {
+        int mask = keys.length - 1;
+        for (int i = hash(handle) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == handle) {
+                return i;
+            }
+            if (keys[i] == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private void put(long handle, Playlist playlist, int hint) {
+        if ((count + 1) * 2 > keys.length) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int i = hash(handle) & mask;
+        while (keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = handle;
+        playlists[i] = playlist;
+        hints[i] = hint;
+        scans[i] = scan;
+        count++;
+    }
+
+    /*
+     * Empties a slot, moving later entries of the same probe run back so
+     * every entry stays reachable from its home slot.
+     */
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            // move the entry if its home is not between the hole and i
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                playlists[hole] = playlists[i];
+                hints[hole] = hints[i];
+                scans[hole] = scans[i];
+                hole = i;
+            }
+        }
+        keys[hole] = EMPTY;
+        playlists[hole] = null;
+        count--;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Playlist[] oldPlaylists = playlists;
+        int[] oldHints = hints;
+        int[] oldScans = scans;
+        keys = new long[oldKeys.length * 2];
+        playlists = new Playlist[keys.length];
+        hints = new int[keys.length];
+        scans = new int[keys.length];
+        count = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldPlaylists[i], oldHints[i]);
+                scans[slot(oldKeys[i])] = oldScans[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package music;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append-only log of binary records, used by
+ * JournaledPlaylistLibrary to record each change to a library.
+ *
+ * File layout, all numbers big-endian:
+ *
+ *      int     magic, "MPLJ"
+ *      int     format version, 1
+ *      long    generation, the snapshot the records apply to
+ *      records int length n, int CRC32 of the n bytes, n bytes
+ *
+ * Records are appended to an in-memory buffer and written out according to
+ * the Durability policy. A record is only part of the log once its CRC
+ * matches, so a record torn by a crash is detected by replay() and cut off.
+ *
+ * Methods are synchronized, so records from several threads are never
+ * interleaved.
+ */
+public class PlaylistJournal {
+
+    /**
+     * When appended records are written to the file and forced to disk.
+     */
+    public enum Durability {
+        /**
+         * Write and force every record before append() returns. Nothing
+         * is lost by a crash, at the cost of one fsync per change.
+         */
+        EVERY_OP,
+
+        /**
+         * Group commit: buffer records and write them with a single fsync
+         * once the group is full, or after the group delay has passed. A
+         * crash loses at most the records of the open group.
+         */
+        GROUP,
+
+        /**
+         * Write every record but leave forcing it to the operating system.
+         * Survives the process crashing, but not the machine.
+         */
+        OS
+    }
+
+    /**
+     * Receives the records of the log during replay().
+     */
+    public interface Replayer {
+        /**
+         * @param record the body of one record, positioned at its start
+         */
+        void apply(ByteBuffer record);
+    }
+
+    /**
+     * "MPLJ"
+     */
+    static final int MAGIC = 0x4D504C4A;
+
+    /**
+     * The format version written by the journal.
+     */
+    static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long generation;
+    private final Durability durability;
+    private final int groupSize;
+
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private int pendingRecords;
+    private long size;
+
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Opens a journal file, creating it with an empty log if it does not
+     * exist.
+     *
+     * @param file the journal file
+     * @param generation the generation of a new file; an existing file must
+     * have this generation
+     * @param durability when records are forced to disk
+     * @param groupSize the most records in one group commit
+     * @param groupDelayMillis the longest a GROUP record waits to be written
+     * @throws IllegalArgumentException if the file cannot be opened or is
+     * not a journal of the given generation
+     */
+    public PlaylistJournal(Path file, long generation, Durability durability, int groupSize, long groupDelayMillis) {
+        this.file = file;
+        this.generation = generation;
+        this.durability = durability;
+        this.groupSize = Math.max(1, groupSize);
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE);
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+                writeFully(header, 0);
+                channel.force(true);
+            }
+            checkHeader();
+            size = channel.size();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not open " + file, e);
+        }
+
+        if (durability == Durability.GROUP) {
+            flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::sync, groupDelayMillis, groupDelayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Passes every complete record of the log to a replayer, in order, and
+     * cuts off anything after the last complete record.
+     *
+     * @param replayer receives the records
+     * @return the number of records replayed
+     * @throws IllegalArgumentException if the file cannot be read
+     */
+    public synchronized int replay(Replayer replayer) {
+        int records = 0;
+        long position = HEADER_BYTES;
+        try {
+            long end = channel.size();
+            ByteBuffer frame = ByteBuffer.allocate(8);
+            while (position + 8 <= end) {
+                frame.clear();
+                readFully(frame, position);
+                int length = frame.getInt(0);
+                if (length < 0 || position + 8 + length > end) {
+                    break;
+                }
+                ByteBuffer body = ByteBuffer.allocate(length);
+                readFully(body, position + 8);
+                crc.reset();
+                crc.update(body.array(), 0, length);
+                if ((int) crc.getValue() != frame.getInt(4)) {
+                    break;
+                }
+                body.flip();
+                replayer.apply(body);
+                records++;
+                position += 8 + length;
+            }
+            if (position < end) {
+                channel.truncate(position);
+                channel.force(true);
+            }
+            size = position;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + file, e);
+        }
+        return records;
+    }
+
+    /**
+     * Appends a record to the log.
+     *
+     * @param record the body of the record
+     * @param length the number of bytes of record to append
+     * @throws IllegalStateException if the record cannot be written
+     */
+    public synchronized void append(byte[] record, int length) {
+        if (pending.remaining() < 8 + length) {
+            write();
+            if (pending.capacity() < 8 + length) {
+                pending = ByteBuffer.allocate(8 + length);
+            }
+        }
+        crc.reset();
+        crc.update(record, 0, length);
+        pending.putInt(length).putInt((int) crc.getValue()).put(record, 0, length);
+        pendingRecords++;
+
+        if (durability == Durability.EVERY_OP) {
+            sync();
+        } else if (durability == Durability.OS) {
+            write();
+        } else if (pendingRecords >= groupSize) {
+            sync();
+        }
+    }
+
+    /**
+     * Writes every appended record and forces the file to disk.
+     *
+     * @throws IllegalStateException if the records cannot be written
+     */
+    public synchronized void sync() {
+        if (!channel.isOpen()) {
+            return;
+        }
+        boolean written = pendingRecords > 0;
+        write();
+        if (written || durability == Durability.OS) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not sync " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Syncs the journal and closes the file.
+     */
+    public synchronized void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        if (!channel.isOpen()) {
+            return;
+        }
+        sync();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not close " + file, e);
+        }
+    }
+
+    /**
+     * @return the generation of the snapshot this journal applies to
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the size of the log in bytes, counting records not yet
+     * written
+     */
+    public synchronized long getSize() {
+        return size + pending.position();
+    }
+
+    /**
+     * @return the journal file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    private void checkHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        if (channel.size() < HEADER_BYTES) {
+            throw new IllegalArgumentException(file + " is not a journal file");
+        }
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException(file + " is not a journal file");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(file + " has unsupported version " + header.getInt(4));
+        }
+        if (header.getLong(8) != generation) {
+            throw new IllegalArgumentException(file + " is generation " + header.getLong(8)
+                                               + ", not " + generation);
+        }
+    }
+
+    /*
+     * Writes the pending records to the end of the file, without forcing.
+     */
+    private void write() {
+        if (pendingRecords == 0) {
+            return;
+        }
+        pending.flip();
+        try {
+            size += writeFully(pending, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write " + file, e);
+        }
+        pending.clear();
+        pendingRecords = 0;
+    }
+
+    private int writeFully(ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+        }
+    }
+}
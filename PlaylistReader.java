@@ -0,0 +1,379 @@
+package music;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads a playlist csv file straight from a FileChannel and
+ * builds the circular linked list of SongNodes in one pass.
+ *
+ * Each line of the input file has the following format:
+ *      songName,artist,year,popularity,link
+ *
+ * Fields are tokenized at the byte level, so no line Strings, split()
+ * arrays or substring copies are created; year and popularity are parsed
+ * directly from the bytes. A field that starts with a double quote is a
+ * quoted field, which may hold commas and line breaks; a doubled quote
+ * ("") inside it is a literal quote. A quote anywhere else is an ordinary
+ * character, so a title such as 7" Single is read as it is. An empty link
+ * is read as null.
+ *
+ * Rows that cannot be parsed are reported to the ErrorHandler and
+ * skipped; the rest of the file is still read.
+ *
+ * If the reader has a SongRegistry, every string and song it reads is
+ * passed through the registry, so equal songs read from any number of
+ * files share one Song.
+ *
+ * A PlaylistReader keeps its buffers between calls, so it should be
+ * reused for many files, but it must not be shared between threads.
+ */
+public class PlaylistReader {
+
+    /**
+     * Receives the rows that could not be parsed.
+     */
+    public interface ErrorHandler {
+        /**
+         * @param filename the file being read
+         * @param lineNumber the 1-based line number of the bad row
+         * @param reason why the row was rejected
+         */
+        void malformedRow(String filename, long lineNumber, String reason);
+    }
+
+    /**
+     * Ignores every malformed row.
+     */
+    public static final ErrorHandler IGNORE = (filename, lineNumber, reason) -> { };
+
+    private static final int FIELDS = 5;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // tokenizer states, for the field the last byte belongs to
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    private final ByteBuffer buffer;
+    private final ErrorHandler errorHandler;
+
+    // bytes of the row being tokenized; rows longer than this grow it
+    private byte[] row = new byte[256];
+    private int rowLength;
+
+    // start/end offsets of each field in row
+    private final int[] fieldStart = new int[FIELDS];
+    private final int[] fieldEnd = new int[FIELDS];
+
+    private SongRegistry registry;
+
+    private long bytesRead;
+    private int malformedRows;
+
+    /**
+     * Creates a reader that ignores malformed rows.
+     */
+    public PlaylistReader() {
+        this(IGNORE);
+    }
+
+    /**
+     * @param errorHandler receives each malformed row
+     */
+    public PlaylistReader(ErrorHandler errorHandler) {
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Reads the songs of a csv file into a playlist.
+     *
+     * If the file has no valid rows, returns a Playlist object with null
+     * for its last, and 0 for its size.
+     *
+     * @param filename the playlist information input file
+     * @return a Playlist object, which contains a reference to the LAST song
+     * in the circular linked list playlist and the size of the playlist.
+     * @throws IllegalArgumentException if the file cannot be read
+     */
+    public Playlist read(String filename) {
+        bytesRead = 0;
+        malformedRows = 0;
+        rowLength = 0;
+
+        SongNode lastSong = null;
+        int songCount = 0;
+        long lineNumber = 0;
+        int state = FIELD_START;
+        boolean firstBytes = true;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1 || buffer.position() > 0) {
+                buffer.flip();
+                if (!buffer.hasRemaining()) {
+                    break;
+                }
+                bytesRead += buffer.remaining();
+                if (firstBytes) {
+                    skipByteOrderMark();
+                    firstBytes = false;
+                }
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n' && state != QUOTED) {
+                        lineNumber++;
+                        Song song = parseRow(filename, lineNumber);
+                        if (song != null) {
+                            lastSong = append(lastSong, song);
+                            songCount++;
+                        }
+                        rowLength = 0;
+                        state = FIELD_START;
+                        continue;
+                    }
+                    state = next(state, b);
+                    appendByte(b);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + filename, e);
+        }
+
+        if (rowLength > 0) {
+            lineNumber++;
+            Song song = parseRow(filename, lineNumber);
+            if (song != null) {
+                lastSong = append(lastSong, song);
+                songCount++;
+            }
+            rowLength = 0;
+        }
+        return new Playlist(lastSong, songCount);
+    }
+
+    /**
+     * @param registry canonicalizes the songs read, or null for none
+     */
+    public void setRegistry(SongRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return the number of bytes read by the last call to read()
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of rows skipped by the last call to read()
+     */
+    public int getMalformedRows() {
+        return malformedRows;
+    }
+
+    private void skipByteOrderMark() {
+        if (buffer.remaining() >= 3
+                && buffer.get(0) == (byte) 0xEF
+                && buffer.get(1) == (byte) 0xBB
+                && buffer.get(2) == (byte) 0xBF) {
+            buffer.position(3);
+        }
+    }
+
+    private void appendByte(byte b) {
+        if (rowLength == row.length) {
+            byte[] bigger = new byte[row.length * 2];
+            System.arraycopy(row, 0, bigger, 0, rowLength);
+            row = bigger;
+        }
+        row[rowLength++] = b;
+    }
+
+    /*
+     * Returns the tokenizer state after byte b, which is not a newline 
+     * that ends the row. A quote opens a quoted field only as the first 
+     * byte of the field; a quote that follows the closing quote of a 
+     * quoted field is a doubled quote.
+     */
+    private static int next(int state, byte b) {
+        switch (state) {
+            case QUOTED:
+                return (b == '"') ? QUOTE_IN_QUOTED : QUOTED;
+            case QUOTE_IN_QUOTED:
+                if (b == '"') {
+                    return QUOTED;
+                }
+                return (b == ',') ? FIELD_START : UNQUOTED;
+            default:
+                if (b == ',') {
+                    return FIELD_START;
+                }
+                return (state == FIELD_START && b == '"') ? QUOTED : UNQUOTED;
+        }
+    }
+
+    private static SongNode append(SongNode lastSong, Song song) {
+        SongNode newSongNode = new SongNode(song, null);
+        if (lastSong == null) {
+            newSongNode.setNext(newSongNode);
+        } else {
+            newSongNode.setNext(lastSong.getNext());
+            lastSong.setNext(newSongNode);
+        }
+        return newSongNode;
+    }
+
+    /*
+     * Splits the current row into its five fields and builds a Song.
+     * Returns null (after reporting it) if the row is malformed, and
+     * null without a report if the row is blank.
+     */
+    private Song parseRow(String filename, long lineNumber) {
+        int length = rowLength;
+        if (length > 0 && row[length - 1] == '\r') {
+            length--;
+        }
+        if (isBlank(length)) {
+            return null;
+        }
+
+        int field = 0;
+        int start = 0;
+        int state = FIELD_START;
+        for (int i = 0; i < length; i++) {
+            state = next(state, row[i]);
+            if (state == FIELD_START) {
+                // a comma outside quotes ended the field
+                if (field == FIELDS - 1) {
+                    return reject(filename, lineNumber, "more than " + FIELDS + " fields");
+                }
+                fieldStart[field] = start;
+                fieldEnd[field] = i;
+                field++;
+                start = i + 1;
+            }
+        }
+        if (state == QUOTED) {
+            return reject(filename, lineNumber, "unterminated quoted field");
+        }
+        if (field != FIELDS - 1) {
+            return reject(filename, lineNumber, "expected " + FIELDS + " fields but found " + (field + 1));
+        }
+        fieldStart[field] = start;
+        fieldEnd[field] = length;
+
+        long year = parseInt(fieldStart[2], fieldEnd[2]);
+        if (year == Long.MIN_VALUE) {
+            return reject(filename, lineNumber, "year is not an integer");
+        }
+        long popularity = parseInt(fieldStart[3], fieldEnd[3]);
+        if (popularity == Long.MIN_VALUE) {
+            return reject(filename, lineNumber, "popularity is not an integer");
+        }
+
+        String name = field(0);
+        String artist = field(1);
+        String link = field(4);
+        if (link.isEmpty()) {
+            link = null;
+        }
+        if (registry == null) {
+            return new Song(name, artist, (int) year, (int) popularity, link);
+        }
+        return registry.canonical(new Song(registry.intern(name), registry.intern(artist),
+                                           (int) year, (int) popularity, registry.intern(link)));
+    }
+
+    private Song reject(String filename, long lineNumber, String reason) {
+        malformedRows++;
+        errorHandler.malformedRow(filename, lineNumber, reason);
+        return null;
+    }
+
+    private boolean isBlank(int length) {
+        for (int i = 0; i < length; i++) {
+            if (row[i] != ' ' && row[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Parses an optionally signed decimal int, ignoring surrounding
+     * blanks, and the quotes of a quoted field. Returns Long.MIN_VALUE if
+     * the bytes are not an int.
+     */
+    private long parseInt(int from, int to) {
+        if (to - from >= 2 && row[from] == '"' && row[to - 1] == '"') {
+            from++;
+            to--;
+        }
+        while (from < to && row[from] == ' ') {
+            from++;
+        }
+        while (to > from && row[to - 1] == ' ') {
+            to--;
+        }
+        if (from == to) {
+            return Long.MIN_VALUE;
+        }
+        boolean negative = row[from] == '-';
+        if (negative || row[from] == '+') {
+            from++;
+            if (from == to) {
+                return Long.MIN_VALUE;
+            }
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = row[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                return Long.MIN_VALUE;
+            }
+        }
+        value = negative ? -value : value;
+        return (value > Integer.MAX_VALUE) ? Long.MIN_VALUE : value;
+    }
+
+    /*
+     * Decodes field i as UTF-8. A quoted field loses its quotes and has
+     * its doubled quotes unescaped; any other field is kept as it is.
+     */
+    private String field(int i) {
+        int from = fieldStart[i];
+        int to = fieldEnd[i];
+        if (from == to || row[from] != '"') {
+            return new String(row, from, to - from, StandardCharsets.UTF_8);
+        }
+        int write = from;
+        boolean inQuotes = true;
+        for (int read = from + 1; read < to; read++) {
+            byte b = row[read];
+            if (inQuotes && b == '"') {
+                if (read + 1 < to && row[read + 1] == '"') {
+                    row[write++] = '"';
+                    read++;
+                } else {
+                    inQuotes = false;
+                }
+            } else {
+                row[write++] = b;
+            }
+        }
+        return new String(row, from, write - from, StandardCharsets.UTF_8);
+    }
+}
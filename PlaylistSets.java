@@ -0,0 +1,232 @@
+package music;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class computes set operations over the songs of playlists: union,
+ * intersection, difference and deduplication.
+ *
+ * Songs are matched by a hashed key rather than by comparing every pair,
+ * so each operation takes time linear in the total number of songs. The
+ * result is a new playlist of distinct songs, in the order they first
+ * appear in the inputs (the first input, for an intersection or a
+ * difference). Its SongNodes are new; its Songs are shared with the
+ * inputs, which are not changed.
+ *
+ * Two songs match when:
+ *
+ *      EXACT   they are equal by Song.equals()
+ *      TRACK   their names and artists are equal, ignoring case and
+ *              spacing, whatever their year, popularity or link: the
+ *              same track listed twice with different details
+ *
+ * An intersection or difference keeps the distinct songs of the first
+ * playlist in a hash table, then streams the songs of the others past it.
+ * When the first playlist is large, a Bloom filter of its songs is checked
+ * first, so songs that cannot match are skipped without probing the
+ * table; for exact matching, also without building a key. A TRACK key is
+ * built once per song and its hash code serves both the filter and the
+ * table.
+ */
+public final class PlaylistSets {
+
+    /**
+     * When two songs are the same song.
+     */
+    public enum Matching {
+        EXACT, TRACK
+    }
+
+    /**
+     * The default number of songs in the first playlist from which a Bloom
+     * filter is used.
+     */
+    public static final int DEFAULT_BLOOM_THRESHOLD = 1 << 16;
+
+    private final Matching matching;
+    private final int bloomThreshold;
+
+    /**
+     * Creates set operations that match songs exactly.
+     */
+    public PlaylistSets() {
+        this(Matching.EXACT, DEFAULT_BLOOM_THRESHOLD);
+    }
+
+    /**
+     * @param matching when two songs are the same song
+     * @param bloomThreshold the fewest songs in the first playlist for
+     * which a Bloom filter is used; Integer.MAX_VALUE for never
+     */
+    public PlaylistSets(Matching matching, int bloomThreshold) {
+        this.matching = matching;
+        this.bloomThreshold = bloomThreshold;
+    }
+
+    /**
+     * @return when two songs are the same song
+     */
+    public Matching getMatching() {
+        return matching;
+    }
+
+    /**
+     * @param playlists the playlists to combine
+     * @return every distinct song of the playlists, in order of first
+     * appearance
+     */
+    public Playlist union(Playlist... playlists) {
+        LinkedHashMap<Object, Song> songs = new LinkedHashMap<Object, Song>();
+        for (Playlist playlist : playlists) {
+            PlaylistCursor.forEach(playlist, (position, song) -> songs.putIfAbsent(key(song), song));
+        }
+        return toPlaylist(songs);
+    }
+
+    /**
+     * @param playlist a playlist
+     * @return the distinct songs of the playlist, in order of first
+     * appearance
+     */
+    public Playlist dedup(Playlist playlist) {
+        return union(playlist);
+    }
+
+    /**
+     * @param first the playlist whose songs are kept
+     * @param others the playlists each kept song must also be in
+     * @return the distinct songs of first that are in every other playlist,
+     * in the order of first
+     */
+    public Playlist intersect(Playlist first, Playlist... others) {
+        return filter(first, others, true);
+    }
+
+    /**
+     * @param first the playlist whose songs are kept
+     * @param others the playlists whose songs are taken out
+     * @return the distinct songs of first that are in none of the others,
+     * in the order of first
+     */
+    public Playlist difference(Playlist first, Playlist... others) {
+        return filter(first, others, false);
+    }
+
+    /*
+     * One distinct song of the first playlist, and how many of the other
+     * playlists hold it.
+     */
+    private static final class Candidate {
+        final Song song;
+        int lastSeenIn = -1;
+        int count;
+
+        Candidate(Song song) {
+            this.song = song;
+        }
+    }
+
+    /*
+     * Counts, for each distinct song of first, the other playlists it is
+     * in, and keeps the songs in all of them (intersect) or none of them.
+     */
+    private Playlist filter(Playlist first, Playlist[] others, boolean intersect) {
+        LinkedHashMap<Object, Candidate> candidates = new LinkedHashMap<Object, Candidate>();
+        PlaylistCursor.forEach(first, (position, song) -> candidates.computeIfAbsent(key(song), key -> new Candidate(song)));
+
+        SongBloomFilter bloom = null;
+        if (candidates.size() >= bloomThreshold) {
+            bloom = new SongBloomFilter(candidates.size());
+            for (Object key : candidates.keySet()) {
+                bloom.add(SongBloomFilter.fingerprint(key.hashCode()));
+            }
+        }
+
+        PlaylistCursor cursor = new PlaylistCursor();
+        for (int i = 0; i < others.length; i++) {
+            cursor.reset(others[i]);
+            while (cursor.hasNext()) {
+                Song song = cursor.next();
+                Object key;
+                if (matching == Matching.EXACT) {
+                    if (bloom != null && !bloom.mightContain(SongBloomFilter.fingerprint(SongKey.hash(song)))) {
+                        continue;
+                    }
+                    key = new SongKey(song);
+                } else {
+                    key = key(song);
+                    if (bloom != null && !bloom.mightContain(SongBloomFilter.fingerprint(key.hashCode()))) {
+                        continue;
+                    }
+                }
+                Candidate candidate = candidates.get(key);
+                if (candidate != null && candidate.lastSeenIn != i) {
+                    candidate.lastSeenIn = i;
+                    candidate.count++;
+                }
+            }
+        }
+
+        LinkedHashMap<Object, Song> kept = new LinkedHashMap<Object, Song>();
+        for (Map.Entry<Object, Candidate> entry : candidates.entrySet()) {
+            Candidate candidate = entry.getValue();
+            if (intersect ? candidate.count == others.length : candidate.count == 0) {
+                kept.put(entry.getKey(), candidate.song);
+            }
+        }
+        return toPlaylist(kept);
+    }
+
+    /*
+     * The hash key of a song: a SongKey, or the normalized name and artist.
+     */
+    private Object key(Song song) {
+        if (matching == Matching.EXACT) {
+            return new SongKey(song);
+        }
+        return normalize(song.getName()) + '\u0000' + normalize(song.getArtist());
+    }
+
+    /*
+     * Lower case with runs of white space collapsed to one space and
+     * leading and trailing white space removed.
+     */
+    private static String normalize(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(s.length());
+        boolean space = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static Playlist toPlaylist(HashMap<Object, Song> songs) {
+        SongNode last = null;
+        for (Song song : songs.values()) {
+            SongNode node = new SongNode(song, null);
+            if (last == null) {
+                node.setNext(node);
+            } else {
+                node.setNext(last.getNext());
+                last.setNext(node);
+            }
+            last = node;
+        }
+        return new Playlist(last, songs.size());
+    }
+}
@@ -0,0 +1,141 @@
+package music;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * This class is a Spliterator over the songs of a playlist, in order, so
+ * a playlist can be read with a Stream:
+ *
+ *      PlaylistSpliterator.stream(playlist, true)
+ *          .filter(song -> song.getYear() >= 2000)
+ *          .count();
+ *
+ * Walking the songs allocates nothing. How a split is made depends on the
+ * playlist:
+ *
+ *      IndexedPlaylist     split in half by position, in logarithmic
+ *                          time, so parallel streams divide the work
+ *                          evenly
+ *      any other playlist  the next batch of songs is copied into an
+ *                          array, the batches growing by 1024 songs each
+ *                          time, which is how the JDK splits linked lists
+ *
+ * The spliterator reads the last node and size of the playlist when it is
+ * created, and the playlist must not be changed until the stream is done.
+ */
+public final class PlaylistSpliterator implements Spliterator<Song> {
+
+    private static final int BATCH_STEP = 1 << 10;
+    private static final int MAX_BATCH = 1 << 25;
+
+    // the node before the next song
+    private SongNode before;
+    private int remaining;
+
+    // not null when splits look nodes up by position
+    private final IndexedPlaylist indexed;
+    private int nextPosition;
+
+    private int batch;
+
+    /**
+     * @param playlist the playlist to read
+     */
+    public PlaylistSpliterator(Playlist playlist) {
+        this(playlist, playlist.getLast());
+        if (indexed != null && remaining > 1) {
+            // builds the tree now, so splits on other threads only read it
+            indexed.getNode(1);
+        }
+    }
+
+    // reads getLast() once, as a CachedPlaylist may return a new ring
+    private PlaylistSpliterator(Playlist playlist, SongNode last) {
+        this(last, (last == null) ? 0 : playlist.getSize(),
+             (playlist instanceof IndexedPlaylist) ? (IndexedPlaylist) playlist : null, 1);
+    }
+
+    private PlaylistSpliterator(SongNode before, int remaining, IndexedPlaylist indexed, int nextPosition) {
+        this.before = before;
+        this.remaining = remaining;
+        this.indexed = indexed;
+        this.nextPosition = nextPosition;
+    }
+
+    /**
+     * @param playlist the playlist to read
+     * @param parallel true for a parallel stream
+     * @return a stream of the songs of the playlist, in order
+     */
+    public static Stream<Song> stream(Playlist playlist, boolean parallel) {
+        return StreamSupport.stream(new PlaylistSpliterator(playlist), parallel);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Song> action) {
+        if (remaining == 0) {
+            return false;
+        }
+        before = before.getNext();
+        remaining--;
+        nextPosition++;
+        action.accept(before.getSong());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Song> action) {
+        SongNode current = before;
+        int count = remaining;
+        nextPosition += count;
+        remaining = 0;
+        for (int i = 0; i < count; i++) {
+            current = current.getNext();
+            action.accept(current.getSong());
+        }
+        before = current;
+    }
+
+    @Override
+    public Spliterator<Song> trySplit() {
+        if (remaining < 2) {
+            return null;
+        }
+        if (indexed != null) {
+            int half = remaining / 2;
+            PlaylistSpliterator prefix = new PlaylistSpliterator(before, half, indexed, nextPosition);
+            before = indexed.getNode(nextPosition + half - 1);
+            nextPosition += half;
+            remaining -= half;
+            return prefix;
+        }
+
+        batch = Math.min(MAX_BATCH, batch + BATCH_STEP);
+        int n = Math.min(remaining, batch);
+        Object[] songs = new Object[n];
+        SongNode current = before;
+        for (int i = 0; i < n; i++) {
+            current = current.getNext();
+            songs[i] = current.getSong();
+        }
+        before = current;
+        nextPosition += n;
+        remaining -= n;
+        return Spliterators.spliterator(songs, 0, n, ORDERED | NONNULL);
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        int characteristics = ORDERED | NONNULL | SIZED;
+        return (indexed != null) ? characteristics | SUBSIZED : characteristics;
+    }
+}
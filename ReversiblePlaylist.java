@@ -0,0 +1,177 @@
+package music;
+
+/**
+ * This class is a Playlist that can be reversed in constant time.
+ *
+ * reverse() only flips a direction flag. Positions passed to getNode(),
+ * insert() and remove() are read in the current direction, and map to
+ * physical positions in the circular linked list (position k of an n song
+ * playlist is physical position n-k+1 while reversed), so songs can be
+ * found, inserted and removed without touching the rest of the list.
+ *
+ * The ring itself is only reversed when other code needs it: getLast()
+ * and setLast() first relink the SongNodes into the current direction, in
+ * a single pass, and clear the flag. Reversing a playlist any number of
+ * times in a row therefore costs nothing until it is next printed, played
+ * or walked.
+ */
+public class ReversiblePlaylist extends Playlist {
+
+    private volatile boolean reversed;
+
+    /**
+     * Creates an empty playlist.
+     */
+    public ReversiblePlaylist() {
+        super();
+    }
+
+    /**
+     * @param last the last SongNode of the circular linked list
+     * @param size the number of songs in the list
+     */
+    public ReversiblePlaylist(SongNode last, int size) {
+        super(last, size);
+    }
+
+    /**
+     * Reverses the order of the playlist in constant time.
+     */
+    public synchronized void reverse() {
+        reversed = !reversed;
+    }
+
+    /**
+     * @return true if the playlist is reversed and its SongNodes are not
+     * yet linked in that order
+     */
+    public boolean isReversed() {
+        return reversed;
+    }
+
+    /**
+     * Returns the last SongNode in the current direction, relinking the
+     * ring first if the playlist is reversed.
+     */
+    @Override
+    public SongNode getLast() {
+        if (reversed) {
+            materialize();
+        }
+        return super.getLast();
+    }
+
+    @Override
+    public void setLast(SongNode last) {
+        if (reversed) {
+            materialize();
+        }
+        super.setLast(last);
+    }
+
+    /**
+     * Returns the SongNode at a position, in the current direction. The
+     * first node is at position 1.
+     *
+     * @param position the position of the song
+     * @return the node at that position, or null if there is none
+     */
+    public SongNode getNode(int position) {
+        int size = getSize();
+        if (position < 1 || position > size) {
+            return null;
+        }
+        return physicalNode(reversed ? size - position + 1 : position);
+    }
+
+    /**
+     * Inserts a song at a position, in the current direction. The first
+     * node is at position 1, and position getSize()+1 appends.
+     *
+     * @param position the position of the new song
+     * @param song the song to insert
+     * @return the new node
+     */
+    public SongNode insert(int position, Song song) {
+        int size = getSize();
+        int physical = reversed ? size - position + 2 : position;
+        SongNode node = new SongNode(song, null);
+        SongNode last = super.getLast();
+        if (size == 0) {
+            node.setNext(node);
+            super.setLast(node);
+        } else {
+            SongNode prev = (physical == 1) ? last : physicalNode(physical - 1);
+            node.setNext(prev.getNext());
+            prev.setNext(node);
+            if (physical == size + 1) {
+                super.setLast(node);
+            }
+        }
+        super.setSize(size + 1);
+        return node;
+    }
+
+    /**
+     * Removes the song at a position, in the current direction.
+     *
+     * @param position the position of the song, from 1 to getSize()
+     * @return the removed node
+     */
+    public SongNode remove(int position) {
+        int size = getSize();
+        int physical = reversed ? size - position + 1 : position;
+        SongNode last = super.getLast();
+        SongNode prev = (physical == 1) ? last : physicalNode(physical - 1);
+        SongNode removed = prev.getNext();
+        if (size == 1) {
+            super.setLast(null);
+        } else {
+            prev.setNext(removed.getNext());
+            if (removed == last) {
+                super.setLast(prev);
+            }
+        }
+        super.setSize(size - 1);
+        return removed;
+    }
+
+    /*
+     * Returns the node at a physical position of the ring.
+     */
+    private SongNode physicalNode(int physical) {
+        SongNode last = super.getLast();
+        if (physical == getSize()) {
+            return last;
+        }
+        SongNode current = last.getNext();
+        for (int i = 1; i < physical; i++) {
+            current = current.getNext();
+        }
+        return current;
+    }
+
+    /*
+     * Points every SongNode at its predecessor, in one pass around the
+     * ring; the old first node becomes the last.
+     */
+    private synchronized void materialize() {
+        if (!reversed) {
+            return;
+        }
+        SongNode last = super.getLast();
+        if (last != null) {
+            SongNode first = last.getNext();
+            SongNode prev = last;
+            SongNode current = first;
+            for (int i = 0; i < getSize(); i++) {
+                SongNode next = current.getNext();
+                current.setNext(prev);
+                prev = current;
+                current = next;
+            }
+            super.setLast(first);
+        }
+        reversed = false;
+    }
+}
@@ -0,0 +1,102 @@
+package music;
+
+import java.util.Comparator;
+
+/**
+ * This class sorts the circular linked list of a playlist in place.
+ *
+ * The sort is a natural bottom-up merge sort: each pass walks the list
+ * once, finds pairs of adjacent runs that are already in order and merges
+ * them by relinking their nodes. It stops as soon as a pass finds a
+ * single run, so a list that is already sorted takes one pass of n-1
+ * comparisons, and a list with r runs takes about log2(r) passes.
+ *
+ * The sort is stable, allocates nothing and uses constant extra space.
+ */
+public final class RingSort {
+
+    private RingSort() {
+    }
+
+    /**
+     * Sorts a circular linked list.
+     *
+     * @param last the last node of the list, or null if it is empty
+     * @param order the order to sort in
+     * @return the last node of the sorted list
+     */
+    public static SongNode sort(SongNode last, Comparator<Song> order) {
+        if (last == null || last.getNext() == last) {
+            return last;
+        }
+
+        SongNode first = last.getNext();
+        last.setNext(null);
+
+        while (true) {
+            SongNode head = first;
+            SongNode tail = null;
+            int runs = 0;
+            first = null;
+
+            while (head != null) {
+                SongNode end1 = endOfRun(head, order);
+                SongNode head2 = end1.getNext();
+                SongNode end2 = null;
+                SongNode rest = null;
+                end1.setNext(null);
+                if (head2 != null) {
+                    end2 = endOfRun(head2, order);
+                    rest = end2.getNext();
+                    end2.setNext(null);
+                }
+
+                // merge head and head2 onto the end of the output
+                SongNode a = head;
+                SongNode b = head2;
+                while (a != null && b != null) {
+                    SongNode next;
+                    if (order.compare(b.getSong(), a.getSong()) < 0) {
+                        next = b;
+                        b = b.getNext();
+                    } else {
+                        next = a;
+                        a = a.getNext();
+                    }
+                    if (tail == null) {
+                        first = next;
+                    } else {
+                        tail.setNext(next);
+                    }
+                    tail = next;
+                }
+                SongNode remaining = (a != null) ? a : b;
+                if (tail == null) {
+                    first = remaining;
+                } else {
+                    tail.setNext(remaining);
+                }
+                tail = (a != null) ? end1 : end2;
+
+                runs++;
+                head = rest;
+            }
+
+            if (runs == 1) {
+                tail.setNext(first);
+                return tail;
+            }
+        }
+    }
+
+    /*
+     * Returns the last node of the run that starts at head.
+     */
+    private static SongNode endOfRun(SongNode head, Comparator<Song> order) {
+        SongNode end = head;
+        while (end.getNext() != null && order.compare(end.getSong(), end.getNext().getSong()) <= 0) {
+            end = end.getNext();
+        }
+        return end;
+    }
+}
@@ -0,0 +1,66 @@
+package music;
+
+/**
+ * This class is a Bloom filter over song fingerprints: a compact bit set
+ * that answers "definitely not added" or "maybe added".
+ *
+ * It is sized for about 1% false positives at the expected number of
+ * songs: 10 bits and 7 probes per song, the probes derived from one 64-bit
+ * fingerprint by double hashing.
+ */
+final class SongBloomFilter {
+
+    private static final int BITS_PER_SONG = 10;
+    private static final int PROBES = 7;
+
+    private final long[] words;
+    private final long mask;
+
+    /**
+     * @param expectedSongs the number of songs that will be added
+     */
+    SongBloomFilter(int expectedSongs) {
+        long bits = Long.highestOneBit(Math.max(64L, (long) expectedSongs * BITS_PER_SONG - 1) << 1);
+        this.words = new long[(int) Math.min(bits >>> 6, 1 << 30)];
+        this.mask = ((long) words.length << 6) - 1;
+    }
+
+    /**
+     * Spreads a 32-bit hash code over 64 bits.
+     *
+     * @param hash a hash code
+     * @return a fingerprint for the filter
+     */
+    static long fingerprint(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * @param fingerprint the fingerprint of a song
+     */
+    void add(long fingerprint) {
+        long h2 = (fingerprint >>> 32) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            long bit = (fingerprint + i * h2) & mask;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @param fingerprint the fingerprint of a song
+     * @return false if the song was definitely not added
+     */
+    boolean mightContain(long fingerprint) {
+        long h2 = (fingerprint >>> 32) | 1;
+        for (int i = 0; i < PROBES; i++) {
+            long bit = (fingerprint + i * h2) & mask;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,169 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * This class indexes the songs of one playlist so that removing a song by
+ * value takes constant time.
+ *
+ * It maps each Song (by Song.equals()) to the SongNodes that hold it, and
+ * each SongNode to its predecessor in the circular linked list, which is
+ * all that is needed to unlink a node from a singly linked ring.
+ *
+ * PlaylistLibrary keeps the index up to date as it inserts and removes
+ * songs. It remembers the last node and size it last saw; if the playlist
+ * no longer matches them, the ring was changed by other code and the index
+ * must be rebuilt.
+ */
+class SongIndex {
+
+    private final IdentityHashMap<SongNode, SongNode> predecessors = new IdentityHashMap<SongNode, SongNode>();
+
+    // a SongNode for a song held once, or an ArrayList of SongNodes
+    private final HashMap<SongKey, Object> nodes = new HashMap<SongKey, Object>();
+
+    private SongNode expectedLast;
+    private int expectedSize;
+
+    /**
+     * @param playlist the playlist to index
+     */
+    SongIndex(Playlist playlist) {
+        rebuild(playlist);
+    }
+
+    /**
+     * @param playlist the indexed playlist
+     * @return true if the playlist has not been changed behind the index
+     */
+    boolean isCurrent(Playlist playlist) {
+        return playlist.getLast() == expectedLast && playlist.getSize() == expectedSize;
+    }
+
+    /**
+     * Indexes every node of the playlist from scratch.
+     *
+     * @param playlist the indexed playlist
+     */
+    void rebuild(Playlist playlist) {
+        predecessors.clear();
+        nodes.clear();
+        SongNode prev = playlist.getLast();
+        for (int i = 0; i < playlist.getSize(); i++) {
+            SongNode node = prev.getNext();
+            predecessors.put(node, prev);
+            addNode(node);
+            prev = node;
+        }
+        sync(playlist);
+    }
+
+    /**
+     * Records the playlist's current last node and size after a change
+     * the index has been told about.
+     *
+     * @param playlist the indexed playlist
+     */
+    void sync(Playlist playlist) {
+        expectedLast = playlist.getLast();
+        expectedSize = playlist.getSize();
+    }
+
+    /**
+     * Records that node has just been linked in after prev. For the first
+     * node of a playlist, prev is the node itself.
+     *
+     * @param prev the node before the new node
+     * @param node the new node
+     */
+    void linked(SongNode prev, SongNode node) {
+        predecessors.put(node.getNext(), node);
+        predecessors.put(node, prev);
+        addNode(node);
+    }
+
+    /**
+     * Records that node has just been unlinked from after prev. The node
+     * must still point at its old successor.
+     *
+     * @param prev the node that was before the removed node
+     * @param node the removed node
+     */
+    void unlinked(SongNode prev, SongNode node) {
+        predecessors.remove(node);
+        removeNode(node);
+        SongNode next = node.getNext();
+        if (next != node) {
+            predecessors.put(next, prev);
+        }
+    }
+
+    /**
+     * Finds the node PlaylistLibrary.removeSong() removes for a song: the
+     * last node if it holds the song, otherwise the first node that does.
+     *
+     * Takes constant time unless the playlist holds the song more than
+     * once and not as its last node, in which case the ring is scanned for
+     * the first copy.
+     *
+     * @param song the song to look for
+     * @param last the last node of the playlist
+     * @return the predecessor of the matching node, or null if the song is
+     * not in the playlist
+     */
+    SongNode predecessorOf(Song song, SongNode last) {
+        if (PlaylistLibrary.sameSong(song, last.getSong())) {
+            return predecessors.get(last);
+        }
+        Object entry = nodes.get(new SongKey(song));
+        if (entry == null) {
+            return null;
+        }
+        if (entry instanceof SongNode) {
+            return predecessors.get((SongNode) entry);
+        }
+        SongNode current = last;
+        while (!PlaylistLibrary.sameSong(song, current.getNext().getSong())) {
+            current = current.getNext();
+        }
+        return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addNode(SongNode node) {
+        SongKey key = new SongKey(node.getSong());
+        Object entry = nodes.get(key);
+        if (entry == null) {
+            nodes.put(key, node);
+        } else if (entry instanceof SongNode) {
+            ArrayList<SongNode> copies = new ArrayList<SongNode>(2);
+            copies.add((SongNode) entry);
+            copies.add(node);
+            nodes.put(key, copies);
+        } else {
+            ((ArrayList<SongNode>) entry).add(node);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removeNode(SongNode node) {
+        SongKey key = new SongKey(node.getSong());
+        Object entry = nodes.get(key);
+        if (entry == node) {
+            nodes.remove(key);
+        } else if (entry instanceof ArrayList) {
+            ArrayList<SongNode> copies = (ArrayList<SongNode>) entry;
+            for (int i = 0; i < copies.size(); i++) {
+                if (copies.get(i) == node) {
+                    copies.remove(i);
+                    break;
+                }
+            }
+            if (copies.size() == 1) {
+                nodes.put(key, copies.get(0));
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package music;
+
+import java.util.Objects;
+
+/**
+ * This class wraps a Song so it can be used as a hash key.
+ *
+ * Two keys are equal when their songs are equal by Song.equals(). The
+ * hash code only covers the song name and artist, which every equal pair
+ * of songs shares, so it stays consistent with Song.equals().
+ */
+final class SongKey {
+
+    final Song song;
+    private final int hash;
+
+    SongKey(Song song) {
+        this.song = song;
+        this.hash = hash(song);
+    }
+
+    /**
+     * @param song the song to hash
+     * @return a hash code that is equal for songs that are equal
+     */
+    static int hash(Song song) {
+        return 31 * Objects.hashCode(song.getName()) + Objects.hashCode(song.getArtist());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SongKey)) {
+            return false;
+        }
+        Song otherSong = ((SongKey) other).song;
+        return song == otherSong || song.equals(otherSong);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,40 @@
+package music;
+
+import java.util.Comparator;
+
+/**
+ * This class holds the orders playlists can be sorted in.
+ *
+ * Each comparator puts the song that should come first in the playlist
+ * first. Ties are left to the sort, which keeps equal songs in their
+ * original order.
+ */
+public final class SongOrder {
+
+    /**
+     * Decreasing popularity, the order of the playlist input files.
+     */
+    public static final Comparator<Song> BY_POPULARITY =
+        (a, b) -> Integer.compare(b.getPopularity(), a.getPopularity());
+
+    /**
+     * Increasing year.
+     */
+    public static final Comparator<Song> BY_YEAR =
+        (a, b) -> Integer.compare(a.getYear(), b.getYear());
+
+    /**
+     * Artist name, alphabetically.
+     */
+    public static final Comparator<Song> BY_ARTIST =
+        Comparator.comparing(Song::getArtist, Comparator.nullsLast(Comparator.<String>naturalOrder()));
+
+    /**
+     * Song name, alphabetically.
+     */
+    public static final Comparator<Song> BY_NAME =
+        Comparator.comparing(Song::getName, Comparator.nullsLast(Comparator.<String>naturalOrder()));
+
+    private SongOrder() {
+    }
+}
@@ -0,0 +1,73 @@
+package music;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class makes equal songs and equal strings share one instance across
+ * a library.
+ *
+ * canonical() returns the first Song registered that is equal (by
+ * Song.equals()) to the one given, so a track that appears in hundreds of
+ * playlists is held once and the playlists' SongNodes all point to it.
+ * intern() does the same for the name, artist and link Strings. Both are
+ * safe to call from the loader threads of loadAllPlaylists().
+ *
+ * Because canonical Songs are shared, changing one through its setters
+ * changes it in every playlist that holds it.
+ */
+public class SongRegistry {
+
+    private final ConcurrentHashMap<SongKey, Song> songs = new ConcurrentHashMap<SongKey, Song>();
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>();
+    private final LongAdder reusedSongs = new LongAdder();
+
+    /**
+     * @param song a song
+     * @return the registered song equal to it, registering this one if
+     * there is none
+     */
+    public Song canonical(Song song) {
+        Song existing = songs.putIfAbsent(new SongKey(song), song);
+        if (existing == null) {
+            return song;
+        }
+        reusedSongs.increment();
+        return existing;
+    }
+
+    /**
+     * @param s a string, or null
+     * @return the registered string equal to it, registering this one if
+     * there is none
+     */
+    public String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        String existing = strings.putIfAbsent(s, s);
+        return (existing == null) ? s : existing;
+    }
+
+    /**
+     * @return the number of distinct songs registered
+     */
+    public int getSongCount() {
+        return songs.size();
+    }
+
+    /**
+     * @return the number of distinct strings registered
+     */
+    public int getStringCount() {
+        return strings.size();
+    }
+
+    /**
+     * @return how many times canonical() returned an existing song instead
+     * of registering a new one
+     */
+    public long getReusedSongCount() {
+        return reusedSongs.sum();
+    }
+}
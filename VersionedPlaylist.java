@@ -0,0 +1,94 @@
+package music;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class is a playlist that many threads can read and edit without
+ * locks.
+ *
+ * It holds the current version of the playlist as an immutable
+ * PersistentPlaylist in an atomic reference. Readers call snapshot() and
+ * get a version that never changes under them. Writers build the next
+ * version from the current one and publish it with compare-and-set,
+ * retrying if another writer published first, so no reader ever sees a
+ * half-made edit.
+ */
+public class VersionedPlaylist {
+
+    private final AtomicReference<PersistentPlaylist> current;
+
+    /**
+     * Creates an empty playlist.
+     */
+    public VersionedPlaylist() {
+        this(PersistentPlaylist.EMPTY);
+    }
+
+    /**
+     * @param initial the first version of the playlist
+     */
+    public VersionedPlaylist(PersistentPlaylist initial) {
+        this.current = new AtomicReference<PersistentPlaylist>(initial);
+    }
+
+    /**
+     * @return the current version of the playlist
+     */
+    public PersistentPlaylist snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Publishes a new version built from the current one. The function may
+     * run more than once if other writers publish at the same time, so it
+     * must not have side effects.
+     *
+     * @param edit builds the new version from the current one
+     * @return the version that was published
+     */
+    public PersistentPlaylist update(UnaryOperator<PersistentPlaylist> edit) {
+        while (true) {
+            PersistentPlaylist before = current.get();
+            PersistentPlaylist after = edit.apply(before);
+            if (after == before || current.compareAndSet(before, after)) {
+                return after;
+            }
+        }
+    }
+
+    /**
+     * @param position from 1 to size + 1
+     * @param song the song to add
+     * @return true if the song has been added, false if the position is
+     * out of range
+     */
+    public boolean insertSong(int position, Song song) {
+        PersistentPlaylist[] before = new PersistentPlaylist[1];
+        PersistentPlaylist after = update(playlist -> {
+            before[0] = playlist;
+            return playlist.insert(position, song);
+        });
+        return after != before[0];
+    }
+
+    /**
+     * @param song the song to remove
+     * @return true if the song was in the playlist and has been removed
+     */
+    public boolean removeSong(Song song) {
+        PersistentPlaylist[] before = new PersistentPlaylist[1];
+        PersistentPlaylist after = update(playlist -> {
+            before[0] = playlist;
+            return playlist.remove(song);
+        });
+        return after != before[0];
+    }
+
+    /**
+     * Reverses the order of the songs.
+     */
+    public void reversePlaylist() {
+        update(PersistentPlaylist::reversed);
+    }
+}
@@ -0,0 +1,190 @@
+package music;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.random.RandomGenerator;
+
+/**
+ * This class orders songs at random, with more popular songs more likely
+ * to come early.
+ *
+ * Each song has weight getPopularity() + 1 (songs with a negative
+ * popularity weigh 1), so a song of popularity 99 is 100 times as likely
+ * as one of popularity 0 to be picked next. No song repeats until every
+ * song has been picked.
+ *
+ * A whole order is drawn by the Efraimidis-Spirakis method: each song gets
+ * an exponentially distributed key with rate equal to its weight, and the
+ * songs are sorted by key, smallest first. That is one random number per
+ * song and one sort of primitive longs, O(nlogn) in all.
+ *
+ * The Radio draws songs one at a time instead, for endless play: its
+ * weights sit in a Fenwick tree, so each song is picked in O(logn) by a
+ * prefix sum search and then removed from the tree. When every song has
+ * been played the tree is refilled in linear time and a new pass begins.
+ */
+public final class WeightedShuffle {
+
+    private WeightedShuffle() {
+    }
+
+    /**
+     * @param song a song
+     * @return its weight, popularity + 1 but at least 1
+     */
+    public static long weight(Song song) {
+        return Math.max(0, song.getPopularity()) + 1L;
+    }
+
+    /**
+     * Reorders nodes into a random order weighted by popularity.
+     *
+     * @param nodes the nodes to reorder
+     * @param random the source of randomness
+     */
+    public static void shuffle(SongNode[] nodes, RandomGenerator random) {
+        int n = nodes.length;
+        // the key as a float in the high half, so the longs sort by key,
+        // and the node's index in the low half; positive floats compare
+        // like their bits
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            double u = 1.0 - random.nextDouble();
+            float key = (float) (-Math.log(u) / weight(nodes[i].getSong()));
+            keys[i] = ((long) Float.floatToIntBits(key) << 32) | i;
+        }
+        Arrays.sort(keys);
+        SongNode[] shuffled = new SongNode[n];
+        for (int i = 0; i < n; i++) {
+            shuffled[i] = nodes[(int) keys[i]];
+        }
+        System.arraycopy(shuffled, 0, nodes, 0, n);
+    }
+
+    /**
+     * An endless stream of songs: each pass plays every song once, in an
+     * order weighted by popularity, and the next pass never starts with
+     * the song the last one ended on.
+     *
+     * The songs are copied when the Radio is created, so later edits to
+     * the playlist do not affect it. A Radio is not thread safe.
+     */
+    public static final class Radio implements Iterator<Song> {
+
+        private final Song[] songs;
+        private final long[] tree;
+        private final RandomGenerator random;
+        private long total;
+        private int left;
+        private int last = -1;
+        private long pass;
+
+        /**
+         * @param playlist the songs to play
+         * @param random the source of randomness
+         */
+        public Radio(Playlist playlist, RandomGenerator random) {
+            this.songs = new Song[(playlist.getLast() == null) ? 0 : playlist.getSize()];
+            PlaylistCursor.forEach(playlist, (position, song) -> songs[position - 1] = song);
+            this.tree = new long[songs.length + 1];
+            this.random = random;
+        }
+
+        /**
+         * @return true unless the playlist was empty
+         */
+        @Override
+        public boolean hasNext() {
+            return songs.length > 0;
+        }
+
+        /**
+         * @return the next song to play
+         * @throws NoSuchElementException if the playlist was empty
+         */
+        @Override
+        public Song next() {
+            if (songs.length == 0) {
+                throw new NoSuchElementException();
+            }
+            if (left == 0) {
+                refill();
+                if (last >= 0 && songs.length > 1) {
+                    // keep the song just played out of the first pick
+                    int previous = last;
+                    add(previous, -weight(songs[previous]));
+                    int pick = pick();
+                    add(previous, weight(songs[previous]));
+                    return play(pick);
+                }
+            }
+            return play(pick());
+        }
+
+        /**
+         * @return the number of passes started so far
+         */
+        public long getPass() {
+            return pass;
+        }
+
+        /**
+         * @return the number of songs left to play in this pass
+         */
+        public int getLeft() {
+            return left;
+        }
+
+        private Song play(int i) {
+            add(i, -weight(songs[i]));
+            left--;
+            last = i;
+            return songs[i];
+        }
+
+        /*
+         * Puts every song back in the tree, in linear time.
+         */
+        private void refill() {
+            Arrays.fill(tree, 0);
+            total = 0;
+            for (int i = 0; i < songs.length; i++) {
+                long w = weight(songs[i]);
+                total += w;
+                int node = i + 1;
+                tree[node] += w;
+                int parent = node + (node & -node);
+                if (parent < tree.length) {
+                    tree[parent] += tree[node];
+                }
+            }
+            left = songs.length;
+            pass++;
+        }
+
+        private void add(int i, long delta) {
+            total += delta;
+            for (int node = i + 1; node < tree.length; node += node & -node) {
+                tree[node] += delta;
+            }
+        }
+
+        /*
+         * Returns the song whose weight covers a uniform point of the
+         * total weight.
+         */
+        private int pick() {
+            long target = random.nextLong(total);
+            int node = 0;
+            for (int step = Integer.highestOneBit(songs.length); step > 0; step >>= 1) {
+                int next = node + step;
+                if (next < tree.length && tree[next] <= target) {
+                    node = next;
+                    target -= tree[next];
+                }
+            }
+            return node;
+        }
+    }
+}
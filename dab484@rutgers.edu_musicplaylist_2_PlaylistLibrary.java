@@ -2,6 +2,13 @@ package music;
 
 import java.io.FileNotFoundException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
 
 /**
  * This class represents a library of song playlists.
@@ -16,6 +23,47 @@ public class PlaylistLibrary {
 
     private ArrayList<Playlist> songLibrary;
 
+    // createPlaylist() may run on several loader threads at once
+    private final ThreadLocal<PlaylistReader> readers =
+        ThreadLocal.withInitial(() -> new PlaylistReader(this::reportMalformedRow));
+    private PlaylistReader.ErrorHandler errorHandler = PlaylistReader.IGNORE;
+
+    // when not null, songs read or inserted are canonicalized through it
+    private SongRegistry registry;
+
+    // when true, playlists are IndexedPlaylists
+    private boolean indexed;
+
+    // when true (and not indexed), playlists are ReversiblePlaylists
+    private boolean reversible;
+
+    // when true, removeSong() finds songs through a SongIndex per playlist;
+    // synchronized because ConcurrentPlaylistLibrary edits different 
+    // playlists at the same time
+    private boolean songIndexed;
+    private final Map<Playlist, SongIndex> songIndexes =
+        Collections.synchronizedMap(new WeakHashMap<Playlist, SongIndex>());
+
+    // indexes the songs of the whole library for the query methods; null 
+    // until the first query
+    private LibraryIndex queryIndex;
+
+    // counts node hops and bytes parsed when not null
+    private LibraryMetrics metrics;
+
+    // when not null, large playlists are sorted and merged on this pool
+    private ForkJoinPool parallelPool;
+    private int parallelThreshold = ParallelRingSort.DEFAULT_THRESHOLD;
+
+    // when not null, createPlaylist() returns CachedPlaylists
+    private volatile PlaylistCache playlistCache;
+
+    // how unionPlaylists() and the other set operations match songs
+    private PlaylistSets playlistSets = new PlaylistSets();
+
+    // stable handles for the playlists clients hold on to
+    private final PlaylistHandles handles = new PlaylistHandles();
+
     /**
      * DO NOT EDIT!
      * Constructor for Library.
@@ -39,68 +87,490 @@ public class PlaylistLibrary {
      * playlist from it.
      * Each song is on a different line.
      * 
-     * 1. Open the file using StdIn.setFile(filename);
-     * 
-     * 2. Declare a reference that will refer to the last song of the circular linked list.
-     * 
-     * 3. While there are still lines in the input file:
-     *      1. read a song from the file
-     *      2. create an object of type Song with the song information
-     *      3. Create a SongNode object that holds the Song object from step 3.2.
-     *      4. insert the Song object at the END of the circular linked list (use the reference from step 2)
-     *      5. increase the count of the number of songs
-     * 
-     * 4. Create a Playlist object with the reference from step (2) and the number of songs in the playlist
-     * 
-     * 5. Return the Playlist object
+     * The file is read by a PlaylistReader, which tokenizes the bytes of 
+     * the file directly and inserts each song at the END of the circular 
+     * linked list as it is read, so the whole playlist is built in one pass.
      * 
      * Each line of the input file has the following format:
      *      songName,artist,year,popularity,link
      * 
-     * To read a line, use StdIn.readline(), then use .split(",") to extract 
-     * fields from the line.
+     * A field wrapped in double quotes may contain commas. Lines that 
+     * cannot be parsed are reported to the error handler (see 
+     * setErrorHandler()) and skipped.
+     * 
+     * This method does not touch the songLibrary, so it may be called 
+     * from several threads at once.
      * 
      * If the playlist is empty, return a Playlist object with null for its last, 
      * and 0 for its size.
      * 
      * The input file has Songs in decreasing popularity order.
      * 
-     * DO NOT implement a sorting method, PRACTICE add to end.
+     * With a playlist cache (see setPlaylistCache()), the playlist is a 
+     * CachedPlaylist whose songs may be evicted and read again later.
      * 
      * @param filename the playlist information input file
      * @return a Playlist object, which contains a reference to the LAST song 
      * in the ciruclar linkedlist playlist and the size of the playlist.
      */
     public Playlist createPlaylist(String filename) {
-        StdIn.setFile(filename);
-        SongNode lastSong = null;
-        int songCount = 0;
-    
-        while (!StdIn.isEmpty()) {
-            String[] data = StdIn.readLine().split(",");
-            String name = data[0];
-            String artist = data[1];
-            int year = Integer.parseInt(data[2]);
-            int pop = Integer.parseInt(data[3]);
-            String link = data[4];
-    
-            Song song = new Song(name, artist, year, pop, link);
-            SongNode newSongNode = new SongNode(song, null);
-    
-            if (lastSong == null) {
-                newSongNode.setNext(newSongNode);
-                lastSong = newSongNode;
-            } else {
-                newSongNode.setNext(lastSong.getNext());
-                lastSong.setNext(newSongNode);
-                lastSong = newSongNode;
+        Playlist playlist = read(filename);
+        PlaylistCache cache = playlistCache;
+        if (cache != null) {
+            return cache.add(filename, () -> read(filename), playlist);
+        }
+        return indexed ? newPlaylist(playlist.getLast(), playlist.getSize()) : playlist;
+    }
+
+    /*
+     * Reads a csv file into a plain Playlist.
+     */
+    private Playlist read(String filename) {
+        PlaylistReader reader = readers.get();
+        reader.setRegistry(registry);
+        Playlist playlist = reader.read(filename);
+        if (metrics != null) {
+            metrics.addBytesParsed(reader.getBytesRead());
+        }
+        return playlist;
+    }
+
+    /**
+     * Sets where createPlaylist() reports the lines it could not parse.
+     * 
+     * The handler is called from the loader threads of 
+     * loadAllPlaylists(), so it must be thread safe.
+     * 
+     * @param errorHandler receives each malformed line
+     */
+    public void setErrorHandler(PlaylistReader.ErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * @return where createPlaylist() reports the lines it could not parse
+     */
+    public PlaylistReader.ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * Sets the registry that makes equal songs share one Song.
+     * 
+     * With a registry, createPlaylist() interns the strings of every song 
+     * it reads and replaces each song with the registered Song equal to 
+     * it, and insertSong() does the same for the songs it inserts. A track 
+     * that appears in many playlists is then held once, and removeSong() 
+     * usually finds it by reference before calling Song.equals().
+     * 
+     * @param registry the registry, or null to stop canonicalizing
+     */
+    public void setSongRegistry(SongRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * @return the song registry, or null if there is none
+     */
+    public SongRegistry getSongRegistry() {
+        return registry;
+    }
+
+    /**
+     * Switches sortPlaylist() and mergePlaylists() to fork-join mode for 
+     * large playlists.
+     * 
+     * In fork-join mode a playlist of at least threshold songs (or two 
+     * playlists with that many songs in all) is copied into an array, 
+     * sorted or merged in parallel on the pool and relinked; see 
+     * ParallelRingSort. The results are exactly those of the sequential 
+     * methods, including their order for songs that compare equal. 
+     * Smaller playlists take the sequential path.
+     * 
+     * @param pool the pool to work on, or null for sequential mode
+     * @param threshold the fewest songs worth working on in parallel
+     */
+    public void setParallel(ForkJoinPool pool, int threshold) {
+        this.parallelPool = pool;
+        this.parallelThreshold = threshold;
+    }
+
+    /**
+     * @return true if the library is in fork-join mode
+     */
+    public boolean isParallel() {
+        return parallelPool != null;
+    }
+
+    /**
+     * @return the pool large playlists are sorted and merged on, or null 
+     * in sequential mode
+     */
+    public ForkJoinPool getParallelPool() {
+        return parallelPool;
+    }
+
+    /**
+     * @return the fewest songs sorted or merged in parallel
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the cache that bounds how many songs of the playlists read by 
+     * createPlaylist(), addPlaylist() and loadAllPlaylists() stay in 
+     * memory.
+     * 
+     * Playlists read after this call are CachedPlaylists: when the songs of 
+     * the library no longer fit in the cache's budget, the songs of the 
+     * playlists used least recently are dropped and read from their files 
+     * again when next used. A playlist that has been changed is kept in 
+     * memory. Playlists already in the library are not affected.
+     * 
+     * Cached playlists are plain playlists, so a cache cannot be used in 
+     * indexed or reversible mode: an IndexedPlaylist or ReversiblePlaylist 
+     * holds its songs for good.
+     * 
+     * @param cache the cache, or null to keep every playlist in memory
+     * @throws IllegalStateException if cache is not null and the library 
+     * is in indexed or reversible mode
+     */
+    public void setPlaylistCache(PlaylistCache cache) {
+        if (cache != null && (indexed || reversible)) {
+            throw new IllegalStateException("A playlist cache cannot be used in indexed or reversible mode");
+        }
+        this.playlistCache = cache;
+    }
+
+    /**
+     * @return the playlist cache, or null if there is none
+     */
+    public PlaylistCache getPlaylistCache() {
+        return playlistCache;
+    }
+
+    /**
+     * Sets how unionPlaylists(), intersectPlaylists(), 
+     * differencePlaylists() and dedupPlaylist() match songs, and when they 
+     * use a Bloom filter.
+     * 
+     * @param playlistSets the set operations to use
+     */
+    public void setPlaylistSets(PlaylistSets playlistSets) {
+        this.playlistSets = playlistSets;
+    }
+
+    /**
+     * @return the set operations the library uses
+     */
+    public PlaylistSets getPlaylistSets() {
+        return playlistSets;
+    }
+
+    /**
+     * Sets the metrics the library counts its work in: the SongNodes it 
+     * walks to find a position or a song, and the bytes createPlaylist() 
+     * parses. InstrumentedPlaylistLibrary also times each operation.
+     * 
+     * @param metrics the metrics, or null to count nothing
+     */
+    public void setMetrics(LibraryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the metrics of the library, or null if there are none
+     */
+    public LibraryMetrics getMetrics() {
+        return metrics;
+    }
+
+    /*
+     * Counts SongNodes walked, if there are metrics.
+     */
+    private void hops(long hops) {
+        if (metrics != null) {
+            metrics.addNodeHops(hops);
+        }
+    }
+
+    /**
+     * Switches the library between plain playlists and IndexedPlaylists.
+     * 
+     * In indexed mode every playlist keeps an order statistic tree beside 
+     * its circular linked list, so insertSong(), removeSongAt() and 
+     * getSong() run in logarithmic time instead of walking the list. 
+     * getLast() and getSize() behave the same in both modes.
+     * 
+     * The playlists already in the library are converted; their SongNodes 
+     * are kept. Indexed mode cannot be used with a playlist cache (see 
+     * setPlaylistCache()).
+     * 
+     * @param indexed true for IndexedPlaylists, false for plain playlists
+     * @throws IllegalStateException if indexed is true and the library has 
+     * a playlist cache
+     */
+    public void setIndexed(boolean indexed) {
+        if (indexed && playlistCache != null) {
+            throw new IllegalStateException("Indexed mode cannot be used with a playlist cache");
+        }
+        this.indexed = indexed;
+        if (songLibrary == null) {
+            return;
+        }
+        if (queryIndex != null) {
+            // the old and new playlists share SongNodes
+            queryIndex.invalidate();
+        }
+        for (int i = 0; i < songLibrary.size(); i++) {
+            Playlist playlist = songLibrary.get(i);
+            if ((playlist instanceof IndexedPlaylist) != indexed) {
+                replace(i, newPlaylist(playlist.getLast(), playlist.getSize()));
             }
-            songCount++;
         }
-        return new Playlist(lastSong, songCount);
     }
-    
-    
+
+    /**
+     * @return true if the library is in indexed mode
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Switches the library between plain playlists and ReversiblePlaylists.
+     * 
+     * A ReversiblePlaylist is reversed by flipping a direction flag, so 
+     * reversePlaylist() takes constant time; insertSong(), removeSongAt() 
+     * and getSong() read positions in the current direction. The SongNodes 
+     * are relinked in one pass the next time the playlist is walked, for 
+     * example by printPlaylist(). Indexed mode takes precedence.
+     * 
+     * The playlists already in the library are converted; their SongNodes 
+     * are kept. Reversible mode cannot be used with a playlist cache (see 
+     * setPlaylistCache()).
+     * 
+     * @param reversible true for ReversiblePlaylists, false for plain 
+     * playlists
+     * @throws IllegalStateException if reversible is true and the library 
+     * has a playlist cache
+     */
+    public void setReversible(boolean reversible) {
+        if (reversible && playlistCache != null) {
+            throw new IllegalStateException("Reversible mode cannot be used with a playlist cache");
+        }
+        this.reversible = reversible;
+        if (songLibrary == null || indexed) {
+            return;
+        }
+        if (queryIndex != null) {
+            queryIndex.invalidate();
+        }
+        for (int i = 0; i < songLibrary.size(); i++) {
+            Playlist playlist = songLibrary.get(i);
+            if ((playlist instanceof ReversiblePlaylist) != reversible) {
+                replace(i, newPlaylist(playlist.getLast(), playlist.getSize()));
+            }
+        }
+    }
+
+    /**
+     * @return true if the library makes ReversiblePlaylists
+     */
+    public boolean isReversible() {
+        return reversible;
+    }
+
+    /**
+     * Turns the song index on or off.
+     * 
+     * With the song index on, each playlist keeps a hash index from each 
+     * song to the node before it in the circular linked list, so 
+     * removeSong() finds and unlinks a song in constant time instead of 
+     * scanning the list. The index for a playlist is built the first time 
+     * a song is removed from it, and kept up to date by insertSong(), 
+     * removeSong() and removeSongAt(). Operations that rebuild the whole 
+     * list, such as reversePlaylist(), mergePlaylists() and 
+     * shufflePlaylist(), drop it to be rebuilt on the next removal.
+     * 
+     * @param songIndexed true to index songs
+     */
+    public void setSongIndexed(boolean songIndexed) {
+        this.songIndexed = songIndexed;
+        songIndexes.clear();
+    }
+
+    /**
+     * @return true if the song index is on
+     */
+    public boolean isSongIndexed() {
+        return songIndexed;
+    }
+
+    /**
+     * Turns the query index on or off.
+     * 
+     * The query index (see LibraryIndex) indexes the songs of every 
+     * playlist by artist, by year and by popularity, so songsByArtist(), 
+     * songsByYear() and topSongs() answer without walking the playlists. 
+     * insertSong(), removeSong() and removeSongAt() keep it up to date as 
+     * they go; playlists added to or removed from the library are indexed 
+     * or dropped at the next query. Any query turns the index on.
+     * 
+     * @param queryIndexed true to keep the query index, false to drop it
+     */
+    public void setQueryIndexed(boolean queryIndexed) {
+        if (!queryIndexed) {
+            queryIndex = null;
+        } else if (queryIndex == null) {
+            queryIndex = new LibraryIndex();
+            queryIndex.reconcile(songLibrary);
+        }
+    }
+
+    /**
+     * @return true if the query index is on
+     */
+    public boolean isQueryIndexed() {
+        return queryIndex != null;
+    }
+
+    /**
+     * Finds the songs of an artist across the whole library.
+     * 
+     * @param artist the artist
+     * @return the distinct songs by the artist, most popular first
+     */
+    public List<Song> songsByArtist(String artist) {
+        return queryIndex().byArtist(artist);
+    }
+
+    /**
+     * Finds the songs released in a range of years across the whole 
+     * library.
+     * 
+     * @param fromYear the first year, inclusive
+     * @param toYear the last year, inclusive
+     * @return the distinct songs of those years, in increasing year order 
+     * and most popular first within a year
+     */
+    public List<Song> songsByYear(int fromYear, int toYear) {
+        return queryIndex().byYear(fromYear, toYear);
+    }
+
+    /**
+     * Finds the most popular songs of the whole library.
+     * 
+     * @param k the number of songs wanted
+     * @return up to k distinct songs, most popular first
+     */
+    public List<Song> topSongs(int k) {
+        return queryIndex().top(k);
+    }
+
+    /**
+     * Finds the most popular songs released in a range of years, such as 
+     * topSongs(100, 1990, 1999).
+     * 
+     * @param k the number of songs wanted
+     * @param fromYear the first year, inclusive
+     * @param toYear the last year, inclusive
+     * @return up to k distinct songs of those years, most popular first
+     */
+    public List<Song> topSongs(int k, int fromYear, int toYear) {
+        return queryIndex().top(k, fromYear, toYear);
+    }
+
+    /*
+     * Returns the query index brought up to date with the songLibrary, 
+     * turning it on if it is off.
+     */
+    private LibraryIndex queryIndex() {
+        if (queryIndex == null) {
+            queryIndex = new LibraryIndex();
+        }
+        queryIndex.reconcile(songLibrary);
+        return queryIndex;
+    }
+
+    /*
+     * Returns the song index of a playlist, building it if needed, or null 
+     * if the song index is off.
+     */
+    private SongIndex songIndex(Playlist playlist) {
+        if (!songIndexed) {
+            return null;
+        }
+        SongIndex index = songIndexes.get(playlist);
+        if (index == null) {
+            index = new SongIndex(playlist);
+            songIndexes.put(playlist, index);
+        } else if (!index.isCurrent(playlist)) {
+            index.rebuild(playlist);
+        }
+        return index;
+    }
+
+    /*
+     * Returns the song index of a playlist if it exists and is up to date, 
+     * so that an edit can be applied to it; null otherwise.
+     */
+    private SongIndex currentSongIndex(Playlist playlist) {
+        SongIndex index = songIndexes.get(playlist);
+        if (index == null || !index.isCurrent(playlist)) {
+            return null;
+        }
+        return index;
+    }
+
+    /*
+     * Puts a playlist in place of the one at an index, moving its handle.
+     */
+    private void replace(int playlistIndex, Playlist replacement) {
+        handles.replace(songLibrary.get(playlistIndex), replacement);
+        songLibrary.set(playlistIndex, replacement);
+    }
+
+    /*
+     * Keeps the songs of a CachedPlaylist in memory until release(), which 
+     * must be called even if acquire() throws.
+     */
+    static void acquire(Playlist playlist) {
+        if (playlist instanceof CachedPlaylist) {
+            ((CachedPlaylist) playlist).acquire();
+        }
+    }
+
+    static void release(Playlist playlist) {
+        if (playlist instanceof CachedPlaylist) {
+            ((CachedPlaylist) playlist).release();
+        }
+    }
+
+    /*
+     * Marks a CachedPlaylist as changed; called before the first of its 
+     * SongNodes is relinked, so its songs cannot be evicted mid-change.
+     */
+    private static void modifying(Playlist playlist) {
+        if (playlist instanceof CachedPlaylist) {
+            ((CachedPlaylist) playlist).modifying();
+        }
+    }
+
+    /*
+     * Creates a playlist of the kind the library's mode calls for.
+     */
+    Playlist newPlaylist(SongNode last, int size) {
+        if (indexed) {
+            return new IndexedPlaylist(last, size);
+        }
+        return reversible ? new ReversiblePlaylist(last, size) : new Playlist(last, size);
+    }
+
+    private void reportMalformedRow(String filename, long lineNumber, String reason) {
+        errorHandler.malformedRow(filename, lineNumber, reason);
+    }
 
     /**
      * ****DO NOT**** UPDATE THIS METHOD
@@ -152,6 +622,48 @@ public class PlaylistLibrary {
         return true;
     }
     
+    /**
+     * Saves every playlist in the songLibrary to one binary library file. 
+     * See LibraryFile for the format.
+     * 
+     * @param filename the file to write
+     */
+    public void saveLibrary(String filename) {
+        LibraryFile.save(songLibrary == null ? new ArrayList<Playlist>() : songLibrary, filename);
+    }
+
+    /**
+     * Replaces the songLibrary with the playlists of a binary library file 
+     * written by saveLibrary().
+     * 
+     * The file is memory-mapped and each playlist is a LazyPlaylist, so 
+     * this returns without reading any songs; the songs of a playlist are 
+     * built the first time it is used. With a playlist cache each playlist 
+     * is a CachedPlaylist instead, whose songs are built from the file 
+     * again whenever they have been evicted. In indexed or reversible mode 
+     * the playlists are converted as setIndexed() and setReversible() 
+     * convert them, which builds their songs.
+     * 
+     * Handles of the playlists the songLibrary held before are dropped.
+     * 
+     * @param filename the file to read
+     */
+    public void loadLibrary(String filename) {
+        ArrayList<Playlist> playlists = LibraryFile.load(filename);
+        PlaylistCache cache = playlistCache;
+        for (int i = 0; i < playlists.size(); i++) {
+            LazyPlaylist playlist = (LazyPlaylist) playlists.get(i);
+            if (cache != null) {
+                playlists.set(i, cache.addUnloaded(filename, playlist.getLoader(), playlist.getSize()));
+            } else if (indexed || reversible) {
+                playlists.set(i, newPlaylist(playlist.getLast(), playlist.getSize()));
+            }
+        }
+        songLibrary = playlists;
+        songIndexes.clear();
+        handles.clear();
+    }
+
     /** 
      * 
      * Adds the playlists from many files into the songLibrary
@@ -164,19 +676,118 @@ public class PlaylistLibrary {
      * The playlist will have the same index in songLibrary as it has in
      * the filenames array. For example if the playlist is being created
      * from the filename[i] it will be added to songLibrary[i]. 
-     * Use the addPlaylist() method. 
      * 
-     * @param filenames an array of the filenames of playlists that should be 
+     * The files are read in parallel, one loader thread per core; see
+     * loadAllPlaylists(). Unlike loadAllPlaylists(), a file that cannot be
+     * read is an error: every file is read before any playlist is added, 
+     * and if one fails, the failure of the first such file is thrown and 
+     * the songLibrary is left as it was.
+     *
+     * @param filenames an array of the filenames of playlists that should be
      * added to the library
+     * @throws RuntimeException the failure of the first file that could not 
+     * be read, such as an IllegalArgumentException if it could not be 
+     * opened
      */
     public void addAllPlaylists(String[] filenames) {
+        Playlist[] loaded = new Playlist[filenames.length];
+        LoadReport report = readAll(filenames, Runtime.getRuntime().availableProcessors(), loaded);
+        for (int i = 0; i < report.size(); i++) {
+            if (report.getFailure(i) != null) {
+                throw report.getFailure(i);
+            }
+        }
+        insertAll(loaded);
+    }
+
+    /**
+     * Adds the playlists from many files into the songLibrary, reading 
+     * the files on a fixed pool of loader threads.
+     * 
+     * The files are parsed concurrently with createPlaylist(), then added 
+     * to the songLibrary in order on the calling thread, so the playlist 
+     * created from filenames[i] ends up at songLibrary[i] exactly as if 
+     * addPlaylist(filenames[i], i) had been called for each file in turn.
+     * 
+     * A file that cannot be read does not stop the others: an empty 
+     * playlist takes its place, and the failure is recorded in the report.
+     * 
+     * @param filenames an array of the filenames of playlists that should be 
+     * added to the library
+     * @param threads the maximum number of files to read at once
+     * @return the per-file load times and failures
+     */
+    public LoadReport loadAllPlaylists(String[] filenames, int threads) {
+        long start = System.nanoTime();
+        Playlist[] loaded = new Playlist[filenames.length];
+        LoadReport report = readAll(filenames, threads, loaded);
+        insertAll(loaded);
+        report.finished(System.nanoTime() - start);
+        return report;
+    }
+
+    /*
+     * Reads the files into loaded on up to threads loader threads, putting 
+     * an empty playlist in place of each file that fails. Does not touch 
+     * the songLibrary.
+     */
+    private LoadReport readAll(String[] filenames, int threads, Playlist[] loaded) {
+        LoadReport report = new LoadReport(filenames);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(filenames.length);
+        for (int i = 0; i < filenames.length; i++) {
+            final int file = i;
+            tasks.add(() -> {
+                long fileStart = System.nanoTime();
+                try {
+                    loaded[file] = createPlaylist(filenames[file]);
+                    report.loaded(file, System.nanoTime() - fileStart);
+                } catch (RuntimeException e) {
+                    loaded[file] = new Playlist();
+                    report.failed(file, System.nanoTime() - fileStart, e);
+                }
+                return null;
+            });
+        }
+
+        int poolSize = Math.max(1, Math.min(threads, filenames.length));
+        if (poolSize == 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+            try {
+                pool.invokeAll(tasks);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading playlists", e);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        return report;
+    }
+
+    /*
+     * Adds the playlists read by readAll() so loaded[i] ends up at 
+     * songLibrary[i].
+     */
+    private void insertAll(Playlist[] loaded) {
         if (songLibrary == null) {
             songLibrary = new ArrayList<Playlist>();
         }
-        for (int i = 0; i < filenames.length; i++) {
-            addPlaylist(filenames[i], i);
+        for (int i = 0; i < loaded.length; i++) {
+            if (i >= songLibrary.size()) {
+                songLibrary.add(loaded[i]);
+            } else {
+                songLibrary.add(i, loaded[i]);
+            }
         }
-    } 
+    }
        
     
 
@@ -211,39 +822,86 @@ public class PlaylistLibrary {
         if (position < 1 || position > playlist.getSize() + 1) {
             return false;
         }
+
+        if (registry != null) {
+            song = registry.canonical(song);
+        }
+
+        if (isReversed(playlist)) {
+            // the song index holds physical predecessors; it is rebuilt 
+            // once the ring is relinked
+            songIndexes.remove(playlist);
+            ((ReversiblePlaylist) playlist).insert(position, song);
+            if (queryIndex != null) {
+                queryIndex.inserted(playlist, song);
+            }
+            return true;
+        }
+
+        SongIndex index = currentSongIndex(playlist);
+
+        if (playlist instanceof IndexedPlaylist) {
+            IndexedPlaylist indexedPlaylist = (IndexedPlaylist) playlist;
+            indexedPlaylist.insert(position, song);
+            if (index != null) {
+                SongNode prev = (position == 1) ? playlist.getLast() : indexedPlaylist.getNode(position - 1);
+                index.linked(prev, prev.getNext());
+                index.sync(playlist);
+            }
+            if (queryIndex != null) {
+                queryIndex.inserted(playlist, song);
+            }
+            return true;
+        }
     
+        modifying(playlist);
         SongNode newSongNode = new SongNode(song, null);
+        SongNode last = playlist.getLast();
+        SongNode prev;
     
        
         if (playlist.getSize() == 0) {
             newSongNode.setNext(newSongNode);
             playlist.setLast(newSongNode);
+            prev = newSongNode;
         } 
        
         else if (position == 1) {
-            newSongNode.setNext(playlist.getLast().getNext());
-            playlist.getLast().setNext(newSongNode);
+            prev = last;
+            newSongNode.setNext(last.getNext());
+            last.setNext(newSongNode);
         } 
        
         else if (position == playlist.getSize() + 1) {
-            newSongNode.setNext(playlist.getLast().getNext()); 
-            playlist.getLast().setNext(newSongNode);
+            prev = last;
+            newSongNode.setNext(last.getNext()); 
+            last.setNext(newSongNode);
             playlist.setLast(newSongNode);
         } 
        
         else {
-            SongNode current = playlist.getLast().getNext();
+            SongNode current = last.getNext();
     
             for (int i = 1; i < position - 1; i++) {
                 current = current.getNext();
             }
+            hops(position - 2);
     
+            prev = current;
             newSongNode.setNext(current.getNext());
             current.setNext(newSongNode);
         }
     
         
         playlist.setSize(playlist.getSize() + 1);
+
+        if (index != null) {
+            index.linked(prev, newSongNode);
+            index.sync(playlist);
+        }
+        if (queryIndex != null) {
+            queryIndex.inserted(playlist, song);
+        }
     
         return true;
     }
@@ -275,13 +933,26 @@ public class PlaylistLibrary {
             if (playlist.getSize() == 0) {
                 return false; 
             }
+
+            SongIndex index = songIndex(playlist);
+            if (index != null) {
+                SongNode prev = index.predecessorOf(song, current);
+                if (prev == null) {
+                    return false;
+                }
+                unlinkAfter(playlist, prev, index);
+                songRemoved(playlist, song);
+                return true;
+            }
             
-            if (song.equals(current.getSong())) {
+            if (sameSong(song, current.getSong())) {
+                modifying(playlist);
                 SongNode prev = null;
-                SongNode temp = playlist.getLast();
+                SongNode temp = current;
                 while (!temp.getNext().equals(current)) {
                     temp = temp.getNext();
                 }
+                hops(playlist.getSize() - 1);
                 prev = temp;
                 
                
@@ -293,20 +964,286 @@ public class PlaylistLibrary {
                 }
                 
                 playlist.setSize(playlist.getSize() - 1);
+                songRemoved(playlist, song);
                 return true;
             }
             
             for (int i = 0; i < playlist.getSize(); i++) {
-                if (song.equals(current.getNext().getSong())) {
+                if (sameSong(song, current.getNext().getSong())) {
+                    modifying(playlist);
                     current.setNext(current.getNext().getNext());
                     playlist.setSize(playlist.getSize() - 1);
+                    hops(i);
+                    songRemoved(playlist, song);
                     return true;
                 }
                 current = current.getNext();
             }
+            hops(playlist.getSize());
+        }
+        return false;
+    }
+
+    /*
+     * Returns true if the playlist is a ReversiblePlaylist whose ring is 
+     * not yet linked in its current direction.
+     */
+    private static boolean isReversed(Playlist playlist) {
+        return playlist instanceof ReversiblePlaylist && ((ReversiblePlaylist) playlist).isReversed();
+    }
+
+    /*
+     * Tells the query index, if there is one, that a song was removed.
+     */
+    private void songRemoved(Playlist playlist, Song song) {
+        if (queryIndex != null) {
+            queryIndex.removed(playlist, song);
+        }
+    }
+
+    /*
+     * Song.equals(), checking for the same Song first, which is the usual 
+     * case when songs are canonicalized by a SongRegistry.
+     */
+    static boolean sameSong(Song song, Song other) {
+        return song == other || song.equals(other);
+    }
+
+    /**
+     * This method removes the song at a given position of a specified 
+     * playlist.
+     * 
+     * The first node of the circular linked list is at position 1. In 
+     * indexed mode this takes logarithmic time.
+     * 
+     * @param playlistIndex the playlist index within the songLibrary
+     * @param position the position of the song to remove
+     * @return the removed song, or null if there is no such position
+     */
+    public Song removeSongAt(int playlistIndex, int position) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return null;
+        }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+        if (position < 1 || position > playlist.getSize()) {
+            return null;
+        }
+
+        if (isReversed(playlist)) {
+            songIndexes.remove(playlist);
+            Song removed = ((ReversiblePlaylist) playlist).remove(position).getSong();
+            songRemoved(playlist, removed);
+            return removed;
+        }
+
+        SongIndex index = currentSongIndex(playlist);
+        SongNode prev = (position == 1) ? playlist.getLast() : getSongNodeAtPosition(playlist, position - 1);
+
+        if (playlist instanceof IndexedPlaylist) {
+            SongNode removed = ((IndexedPlaylist) playlist).remove(position);
+            if (index != null) {
+                index.unlinked(prev, removed);
+                index.sync(playlist);
+            }
+            songRemoved(playlist, removed.getSong());
+            return removed.getSong();
+        }
+
+        Song removed = unlinkAfter(playlist, prev, index).getSong();
+        songRemoved(playlist, removed);
+        return removed;
+    }
+
+    /*
+     * Unlinks the node after prev from a playlist, updating its last, its 
+     * size and its song index (if not null). Returns the unlinked node, 
+     * which still points at its old successor.
+     */
+    private SongNode unlinkAfter(Playlist playlist, SongNode prev, SongIndex index) {
+        modifying(playlist);
+        SongNode last = playlist.getLast();
+        SongNode removed = prev.getNext();
+        if (playlist.getSize() == 1) {
+            playlist.setLast(null);
+        } else {
+            prev.setNext(removed.getNext());
+            if (removed == last) {
+                playlist.setLast(prev);
+            }
+        }
+        playlist.setSize(playlist.getSize() - 1);
+        if (index != null) {
+            index.unlinked(prev, removed);
+            index.sync(playlist);
+        }
+        return removed;
+    }
+
+    /**
+     * This method applies a batch of inserts and removes to a specified
+     * playlist.
+     *
+     * The result is the same as calling insertSong() and removeSong() for
+     * each edit of the batch in order, but the batch is planned first and
+     * the circular linked list is then relinked in a single pass, so a
+     * batch of k edits takes O(n + klogk) time instead of O(nk).
+     *
+     * The batch is all or nothing: if any edit would fail, no edit is
+     * applied.
+     *
+     * @param playlistIndex the playlist index within the songLibrary
+     * @param batch the edits to apply
+     * @return true if the batch has been applied, false otherwise
+     */
+    public boolean applyBatch(int playlistIndex, PlaylistBatch batch) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return false;
+        }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+        int sizeBefore = playlist.getSize();
+        SongNode[] nodes = toArray(playlist);
+        hops(nodes.length);
+
+        PlaylistBatch.Result result = batch.plan(nodes, registry);
+        if (result == null) {
+            return false;
+        }
+
+        modifying(playlist);
+        if (result.order.length == 0) {
+            playlist.setLast(null);
+            songIndexes.remove(playlist);
+        } else {
+            relink(playlist, result.order);
+        }
+        playlist.setSize(result.order.length);
+        if (queryIndex != null) {
+            queryIndex.batched(playlist, sizeBefore, result.added, result.removed);
+        }
+        return true;
+    }
+
+    /**
+     * This method returns the song at a given position of a specified 
+     * playlist.
+     * 
+     * The first node of the circular linked list is at position 1. In 
+     * indexed mode this takes logarithmic time.
+     * 
+     * @param playlistIndex the playlist index within the songLibrary
+     * @param position the position of the song
+     * @return the song, or null if there is no such position
+     */
+    public Song getSong(int playlistIndex, int position) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return null;
+        }
+        SongNode node = getSongNodeAtPosition(songLibrary.get(playlistIndex), position);
+        return (node == null) ? null : node.getSong();
+    }
+
+    /**
+     * This method passes every song of a specified playlist, in order, to 
+     * a visitor, walking the circular linked list once.
+     * 
+     * @param playlistIndex the playlist index within the songLibrary
+     * @param visitor receives each song and its position
+     */
+    public void forEachSong(int playlistIndex, PlaylistCursor.Visitor visitor) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return;
+        }
+        PlaylistCursor.forEach(songLibrary.get(playlistIndex), visitor);
+    }
+
+    /**
+     * This method returns a stream of the songs of a specified playlist, 
+     * in order. Call parallel() on it to read a large playlist on several 
+     * threads; see PlaylistSpliterator for how the playlist is split.
+     * 
+     * The stream walks the circular linked list as it is consumed, so the 
+     * playlist must not be changed until the stream is done.
+     * 
+     * @param playlistIndex the playlist index within the songLibrary
+     * @return the songs of the playlist, or an empty stream if there is no 
+     * such playlist
+     */
+    public Stream<Song> stream(int playlistIndex) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return Stream.empty();
+        }
+        return PlaylistSpliterator.stream(songLibrary.get(playlistIndex), false);
+    }
+
+    /**
+     * This method returns a stable handle for a specified playlist.
+     * 
+     * An index names whichever playlist is at that index, and shifts when 
+     * playlists before it are added or removed. A handle keeps naming the 
+     * same playlist until it leaves the library, so clients can cache it 
+     * and turn it back into the current index with indexOf(). Asking twice
+     * for the handle of a playlist gives the same handle.
+     *
+     * A handle follows its playlist through edits and mode switches
+     * (setIndexed(), setReversible()). When playlists are merged, the
+     * merged playlist keeps the handle of the playlist whose slot it takes
+     * (the lowest index), and the handles of the others are dropped.
+     *
+     * @param playlistIndex the playlist index within the songLibrary
+     * @return the handle of the playlist, or 0 if there is no such playlist
+     */
+    public long getHandle(int playlistIndex) {
+        if (songLibrary == null || playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return 0;
         }
-        return false;
+        return handles.handleOf(songLibrary, playlistIndex);
+    }
+
+    /**
+     * This method finds the current index of a playlist by its handle.
+     * 
+     * The index the playlist had when last looked up is checked first, so 
+     * this takes constant time unless playlists before it have been added 
+     * or removed since, in which case the library is scanned once for all 
+     * handles.
+     * 
+     * @param handle a handle returned by getHandle()
+     * @return the index of the playlist within the songLibrary, or -1 if it 
+     * is no longer in the library
+     */
+    public int indexOf(long handle) {
+        return handles.indexOf(songLibrary, handle);
+    }
+
+    /**
+     * This method returns the playlist a handle names.
+     * 
+     * @param handle a handle returned by getHandle()
+     * @return the playlist, or null if it is no longer in the library
+     */
+    public Playlist getPlaylist(long handle) {
+        int playlistIndex = indexOf(handle);
+        return (playlistIndex == PlaylistHandles.MISSING) ? null : songLibrary.get(playlistIndex);
+    }
+
+    /**
+     * This method copies a specified playlist into an immutable 
+     * PersistentPlaylist, which can be read from any thread without locks 
+     * or shared through a VersionedPlaylist.
+     * 
+     * @param playlistIndex the playlist index within the songLibrary
+     * @return a snapshot of the playlist, or null if there is no such 
+     * playlist
+     */
+    public PersistentPlaylist snapshot(int playlistIndex) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return null;
+        }
+        return PersistentPlaylist.of(songLibrary.get(playlistIndex));
     }
+
     /**
      * This method reverses the playlist located at playlistIndex
      * 
@@ -316,6 +1253,9 @@ public class PlaylistLibrary {
      * After the list is reversed, the playlist located at playlistIndex will 
      * reference the first SongNode in the original playlist (new last).
      * 
+     * The list is reversed in a single pass. A ReversiblePlaylist (see 
+     * setReversible()) is reversed in constant time instead.
+     * 
      * @param playlistIndex the playlist to reverse
      */
     public void reversePlaylist(int playlistIndex) {
@@ -324,6 +1264,13 @@ public class PlaylistLibrary {
         }
     
         Playlist playlist = songLibrary.get(playlistIndex);
+        if (playlist instanceof ReversiblePlaylist) {
+            ((ReversiblePlaylist) playlist).reverse();
+            songIndexes.remove(playlist);
+            return;
+        }
+
+        modifying(playlist);
         SongNode lastNode = playlist.getLast();
         if (lastNode == null || playlist.getSize() == 1) {
             return;
@@ -338,13 +1285,10 @@ public class PlaylistLibrary {
             prev = current;
             current = nextTemp;
         }
-        firstNode = prev;
-        current = firstNode;
-        while (current.getNext() != null) {
-            current = current.getNext();
-        }
-        current.setNext(firstNode);
-        playlist.setLast(current);
+        // the old first node is the new last; close the ring behind it
+        firstNode.setNext(prev);
+        playlist.setLast(firstNode);
+        songIndexes.remove(playlist);
     }
     
 
@@ -362,6 +1306,8 @@ public class PlaylistLibrary {
      *  - store the merged playlist at the lower playlistIndex
      *  - remove playlist at the higher playlistIndex 
      * 
+     * In fork-join mode (see setParallel()) large playlists are merged in 
+     * parallel.
      * 
      * @param playlistIndex1 the first playlist to merge into one playlist
      * @param playlistIndex2 the second playlist to merge into one playlist
@@ -375,6 +1321,22 @@ public class PlaylistLibrary {
     Playlist playlist1 = songLibrary.get(playlistIndex1);
     Playlist playlist2 = songLibrary.get(playlistIndex2);
 
+    // neither playlist may be evicted and read again while it is walked
+    try {
+        acquire(playlist1);
+        acquire(playlist2);
+        mergePlaylists(playlistIndex1, playlistIndex2, playlist1, playlist2);
+    } finally {
+        release(playlist2);
+        release(playlist1);
+    }
+}
+
+/*
+ * Merges two playlists for mergePlaylists(). Each ring is walked from the 
+ * last node read at the start up to that same node.
+ */
+private void mergePlaylists(int playlistIndex1, int playlistIndex2, Playlist playlist1, Playlist playlist2) {
     SongNode lastNode1 = playlist1.getLast();
     SongNode lastNode2 = playlist2.getLast();
 
@@ -383,6 +1345,12 @@ public class PlaylistLibrary {
         return;
     }
 
+    ForkJoinPool pool = parallelPool;
+    if (pool != null && playlist1.getSize() + playlist2.getSize() >= parallelThreshold) {
+        mergeInParallel(playlistIndex1, playlistIndex2, pool);
+        return;
+    }
+
     SongNode current1 = null;
     SongNode current2 = null;
 
@@ -399,14 +1367,14 @@ public class PlaylistLibrary {
         if (current1.getSong().getPopularity() > current2.getSong().getPopularity() ||
             (current1.getSong().getPopularity() == current2.getSong().getPopularity() && playlistIndex1 < playlistIndex2)) {
             mergedLast = addSongToMerged(mergedLast, current1.getSong());
-            if (current1.getNext() == playlist1.getLast().getNext()) {
+            if (current1 == lastNode1) {
                 current1 = null;
             } else {
                 current1 = current1.getNext();
             }
         } else {
             mergedLast = addSongToMerged(mergedLast, current2.getSong());
-            if (current2.getNext() == playlist2.getLast().getNext()) {
+            if (current2 == lastNode2) {
                 current2 = null;
             } else {
                 current2 = current2.getNext();
@@ -416,7 +1384,7 @@ public class PlaylistLibrary {
 
     while (current1 != null) {
         mergedLast = addSongToMerged(mergedLast, current1.getSong());
-        if (current1.getNext() == playlist1.getLast().getNext()) {
+        if (current1 == lastNode1) {
             current1 = null;
         } else {
             current1 = current1.getNext();
@@ -425,7 +1393,7 @@ public class PlaylistLibrary {
 
     while (current2 != null) {
         mergedLast = addSongToMerged(mergedLast, current2.getSong());
-        if (current2.getNext() == playlist2.getLast().getNext()) {
+        if (current2 == lastNode2) {
             current2 = null;
         } else {
             current2 = current2.getNext();
@@ -435,9 +1403,28 @@ public class PlaylistLibrary {
     int lowerIndex = Math.min(playlistIndex1, playlistIndex2);
     int higherIndex = Math.max(playlistIndex1, playlistIndex2);
 
-    Playlist mergedPlaylist = new Playlist(mergedLast, (playlist1.getSize() + playlist2.getSize()));
-    songLibrary.set(higherIndex, mergedPlaylist);
-    songLibrary.remove(lowerIndex);
+    Playlist mergedPlaylist = newPlaylist(mergedLast, (playlist1.getSize() + playlist2.getSize()));
+    // the merged playlist takes the lower playlist's slot, as in mergeAll()
+    replace(lowerIndex, mergedPlaylist);
+    songLibrary.remove(higherIndex);
+}
+
+/*
+ * Merges two playlists the way mergePlaylists() does, on a ForkJoinPool.
+ */
+private void mergeInParallel(int playlistIndex1, int playlistIndex2, ForkJoinPool pool) {
+    int lowerIndex = Math.min(playlistIndex1, playlistIndex2);
+    int higherIndex = Math.max(playlistIndex1, playlistIndex2);
+    Playlist lower = songLibrary.get(lowerIndex);
+    Playlist higher = songLibrary.get(higherIndex);
+
+    // the lower playlist goes first, so it wins ties
+    SongNode mergedLast = ParallelRingSort.merge(lower.getLast(), lower.getSize(),
+                                                 higher.getLast(), higher.getSize(),
+                                                 SongOrder.BY_POPULARITY, pool, parallelThreshold);
+    Playlist mergedPlaylist = newPlaylist(mergedLast, lower.getSize() + higher.getSize());
+    replace(lowerIndex, mergedPlaylist);
+    songLibrary.remove(higherIndex);
 }
 
 private SongNode addSongToMerged(SongNode last, Song song) {
@@ -452,104 +1439,507 @@ private SongNode addSongToMerged(SongNode last, Song song) {
     }
     }
 
+    /**
+     * This method merges any number of playlists into one.
+     * 
+     * All playlists are in decreasing popularity order, and so is the 
+     * result. If songs have the same popularity, the song from the playlist 
+     * with the lower playlistIndex comes first, as in mergePlaylists().
+     * 
+     * The merge is a k-way merge: a binary heap holds the next song of each 
+     * playlist, so each song is placed in O(log k) time. The SongNodes of 
+     * the inputs are spliced into the merged playlist as they are taken, 
+     * so no songs are copied; the input Playlist objects are left empty.
+     * 
+     * After the playlists have been merged:
+     *  - store the merged playlist at the lowest playlistIndex
+     *  - remove the playlists at the other indices
+     *
+     * To keep the playlists and add the result as a new playlist instead,
+     * use mergeAllToNew().
+     *
+     * @param indices the distinct indices of the playlists to merge
+     * @return the merged playlist, or null if an index is out of range or 
+     * repeated
+     */
+    public Playlist mergeAll(int... indices) {
+        int[] sorted = sortedIndices(indices);
+        if (sorted == null) {
+            return null;
+        }
+
+        // each ring is opened into a null-terminated list so the merge 
+        // needs no end-of-list checks
+        int k = sorted.length;
+        SongNode[] heads = new SongNode[k];
+        int total = 0;
+        Playlist[] inputs = new Playlist[k];
+        int[] sizes = new int[k];
+        for (int i = 0; i < k; i++) {
+            Playlist playlist = songLibrary.get(sorted[i]);
+            inputs[i] = playlist;
+            sizes[i] = playlist.getSize();
+            total += playlist.getSize();
+            modifying(playlist);
+            SongNode last = playlist.getLast();
+            if (last != null) {
+                heads[i] = last.getNext();
+                last.setNext(null);
+            }
+            playlist.setLast(null);
+            playlist.setSize(0);
+            songIndexes.remove(playlist);
+        }
 
+        Playlist mergedPlaylist = newPlaylist(merge(heads), total);
+        for (int i = k - 1; i > 0; i--) {
+            songLibrary.remove(sorted[i]);
+        }
+        handles.replace(inputs[0], mergedPlaylist);
+        songLibrary.set(sorted[0], mergedPlaylist);
+        if (queryIndex != null) {
+            queryIndex.moved(inputs, sizes, mergedPlaylist);
+        }
+        return mergedPlaylist;
+    }
 
     /**
-     * This method shuffles a specified playlist using the following procedure:
+     * This method merges any number of playlists into a new playlist at 
+     * the end of the songLibrary, keeping the playlists it merges.
      * 
-     * 1. Create a new playlist to store the shuffled playlist in.
+     * The order is the same as mergeAll(), and so is the k-way merge, but 
+     * each song is copied into a new SongNode as the playlists are read, 
+     * so the specified playlists are not changed.
      * 
-     * 2. While the size of the original playlist is not 0, randomly generate a number 
-     * using StdRandom.uniformInt(1, size+1). Size contains the current number
-     * of items in the original playlist.
-     * 
-     * 3. Remove the corresponding node from the original playlist and insert 
-     * it into the END of the new playlist (1 being the first node, 2 being the 
-     * second, etc). 
+     * @param indices the distinct indices of the playlists to merge
+     * @return the merged playlist, or null if an index is out of range or 
+     * repeated
+     */
+    public Playlist mergeAllToNew(int... indices) {
+        int[] sorted = sortedIndices(indices);
+        if (sorted == null) {
+            return null;
+        }
+
+        int k = sorted.length;
+        SongNode[] heads = new SongNode[k];
+        int total = 0;
+        for (int i = 0; i < k; i++) {
+            Playlist playlist = songLibrary.get(sorted[i]);
+            total += playlist.getSize();
+            SongNode tail = null;
+            PlaylistCursor cursor = new PlaylistCursor(playlist);
+            while (cursor.hasNext()) {
+                SongNode node = new SongNode(cursor.next(), null);
+                if (tail == null) {
+                    heads[i] = node;
+                } else {
+                    tail.setNext(node);
+                }
+                tail = node;
+            }
+        }
+
+        Playlist mergedPlaylist = newPlaylist(merge(heads), total);
+        songLibrary.add(mergedPlaylist);
+        return mergedPlaylist;
+    }
+
+    /*
+     * Returns the indices sorted, or null if there are none or one is out 
+     * of range or repeated.
+     */
+    private int[] sortedIndices(int[] indices) {
+        if (songLibrary == null || indices.length == 0) {
+            return null;
+        }
+        int[] sorted = indices.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] < 0 || sorted[i] >= songLibrary.size() || (i > 0 && sorted[i] == sorted[i - 1])) {
+                return null;
+            }
+        }
+        return sorted;
+    }
+
+    /*
+     * Merges null-terminated lists of nodes, heads[i] from the playlist 
+     * with the i-th lowest index, into one circular linked list by 
+     * relinking the nodes. Returns its last node, or null if it is empty.
+     */
+    private static SongNode merge(SongNode[] heads) {
+        // the heap holds the lists that still have nodes
+        int[] heap = new int[heads.length];
+        int heapSize = 0;
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[i] != null) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, heads);
+            }
+        }
+
+        SongNode mergedFirst = null;
+        SongNode mergedLast = null;
+        while (heapSize > 0) {
+            int cursor = heap[0];
+            SongNode node = heads[cursor];
+            heads[cursor] = node.getNext();
+            if (mergedLast == null) {
+                mergedFirst = node;
+            } else {
+                mergedLast.setNext(node);
+            }
+            mergedLast = node;
+
+            if (heads[cursor] == null) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(heap, heapSize, heads);
+        }
+        if (mergedLast != null) {
+            mergedLast.setNext(mergedFirst);
+        }
+        return mergedLast;
+    }
+
+    /*
+     * Heap order for mergeAll(): cursor a comes before cursor b if its 
+     * song is more popular, or as popular and from a lower playlistIndex.
+     */
+    private static boolean before(int a, int b, SongNode[] heads) {
+        int popularityA = heads[a].getSong().getPopularity();
+        int popularityB = heads[b].getSong().getPopularity();
+        return popularityA > popularityB || (popularityA == popularityB && a < b);
+    }
+
+    private static void siftUp(int[] heap, int i, SongNode[] heads) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(heap[i], heap[parent], heads)) {
+                return;
+            }
+            int temp = heap[i];
+            heap[i] = heap[parent];
+            heap[parent] = temp;
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, SongNode[] heads) {
+        int i = 0;
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && before(heap[child + 1], heap[child], heads)) {
+                child++;
+            }
+            if (!before(heap[child], heap[i], heads)) {
+                return;
+            }
+            int temp = heap[i];
+            heap[i] = heap[child];
+            heap[child] = temp;
+            i = child;
+        }
+    }
+
+
+
+    /**
+     * This method shuffles a specified playlist with StdRandom, so 
+     * StdRandom.setSeed() makes the order reproducible.
      * 
-     * 4. Update the old playlist with the new shuffled playlist.
+     * See shufflePlaylist(int, RandomGenerator).
      *    
-     * @param index the playlist to shuffle in songLibrary
+     * @param playlistIndex the playlist to shuffle in songLibrary
      */
     public void shufflePlaylist(int playlistIndex) {
+        shuffle(playlistIndex, StdRandom::uniformInt);
+    }
+
+    /**
+     * This method shuffles a specified playlist using the Fisher-Yates 
+     * shuffle:
+     * 
+     * 1. Copy the SongNodes of the playlist into an array, in order.
+     * 
+     * 2. For i from size-1 down to 1, swap element i with a random element 
+     * from 0 to i, inclusive. Every order is equally likely.
+     * 
+     * 3. Relink the nodes in array order into a circular linked list, and 
+     * make the last element of the array the last node of the playlist.
+     * 
+     * The shuffle takes linear time and reuses the existing SongNodes. 
+     * Passing generators with the same seed gives the same order.
+     *    
+     * @param playlistIndex the playlist to shuffle in songLibrary
+     * @param random the source of randomness
+     */
+    public void shufflePlaylist(int playlistIndex, RandomGenerator random) {
+        shuffle(playlistIndex, random::nextInt);
+    }
+
+    /**
+     * This method adds a playlist of every distinct song of the specified 
+     * playlists, in order of first appearance, at the end of the 
+     * songLibrary. The specified playlists are not changed.
+     * 
+     * Songs are matched by hashing (see setPlaylistSets()), so this takes 
+     * linear time in the number of songs.
+     * 
+     * @param indices the playlist indices within the songLibrary
+     * @return the new playlist, or null if an index is out of range or 
+     * there are none
+     */
+    public Playlist unionPlaylists(int... indices) {
+        Playlist[] playlists = playlistsAt(indices);
+        return (playlists == null) ? null : addResult(playlistSets.union(playlists));
+    }
+
+    /**
+     * This method adds a playlist of the distinct songs of the first 
+     * specified playlist that are also in every other one, in the order of 
+     * the first, at the end of the songLibrary. The specified playlists 
+     * are not changed.
+     * 
+     * @param indices the playlist indices within the songLibrary
+     * @return the new playlist, or null if an index is out of range or 
+     * there are none
+     */
+    public Playlist intersectPlaylists(int... indices) {
+        Playlist[] playlists = playlistsAt(indices);
+        if (playlists == null) {
+            return null;
+        }
+        return addResult(playlistSets.intersect(playlists[0], Arrays.copyOfRange(playlists, 1, playlists.length)));
+    }
+
+    /**
+     * This method adds a playlist of the distinct songs of the first 
+     * specified playlist that are in none of the others, in the order of 
+     * the first, at the end of the songLibrary. The specified playlists 
+     * are not changed.
+     * 
+     * @param indices the playlist indices within the songLibrary
+     * @return the new playlist, or null if an index is out of range or 
+     * there are none
+     */
+    public Playlist differencePlaylists(int... indices) {
+        Playlist[] playlists = playlistsAt(indices);
+        if (playlists == null) {
+            return null;
+        }
+        return addResult(playlistSets.difference(playlists[0], Arrays.copyOfRange(playlists, 1, playlists.length)));
+    }
+
+    /**
+     * This method adds a copy of a specified playlist with every repeated 
+     * song removed, keeping the first copy of each, at the end of the 
+     * songLibrary. The specified playlist is not changed.
+     * 
+     * @param playlistIndex the playlist index within the songLibrary
+     * @return the new playlist, or null if there is no such playlist
+     */
+    public Playlist dedupPlaylist(int playlistIndex) {
+        Playlist[] playlists = playlistsAt(new int[] { playlistIndex });
+        return (playlists == null) ? null : addResult(playlistSets.dedup(playlists[0]));
+    }
+
+    /*
+     * Returns the playlists at the indices, or null if an index is out of 
+     * range or there are none.
+     */
+    private Playlist[] playlistsAt(int[] indices) {
+        if (songLibrary == null || indices.length == 0) {
+            return null;
+        }
+        Playlist[] playlists = new Playlist[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] < 0 || indices[i] >= songLibrary.size()) {
+                return null;
+            }
+            playlists[i] = songLibrary.get(indices[i]);
+        }
+        return playlists;
+    }
+
+    /*
+     * Adds the result of a set operation at the end of the songLibrary.
+     */
+    private Playlist addResult(Playlist result) {
+        Playlist playlist = newPlaylist(result.getLast(), result.getSize());
+        songLibrary.add(playlist);
+        return playlist;
+    }
+
+    /**
+     * This method shuffles a specified playlist so that more popular songs 
+     * tend to come first.
+     * 
+     * See weightedShufflePlaylist(int, RandomGenerator).
+     * 
+     * @param playlistIndex the playlist to shuffle in songLibrary
+     */
+    public void weightedShufflePlaylist(int playlistIndex) {
+        long seed = ((long) StdRandom.uniformInt(Integer.MAX_VALUE) << 32) ^ StdRandom.uniformInt(Integer.MAX_VALUE);
+        weightedShufflePlaylist(playlistIndex, new SplittableRandom(seed));
+    }
+
+    /**
+     * This method shuffles a specified playlist so that more popular songs 
+     * tend to come first.
+     * 
+     * Each song is picked next with probability proportional to its 
+     * popularity + 1 among the songs not yet picked, so every song still 
+     * appears exactly once. The order is drawn in O(nlogn) time by 
+     * WeightedShuffle, and the existing SongNodes are relinked.
+     * 
+     * @param playlistIndex the playlist to shuffle in songLibrary
+     * @param random the source of randomness
+     */
+    public void weightedShufflePlaylist(int playlistIndex, RandomGenerator random) {
         if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
             return;
         }
-    
-        Playlist originalPlaylist = songLibrary.get(playlistIndex);
-        Playlist shuffledPlaylist = new Playlist();
-        int size = originalPlaylist.getSize();
-        
-        while (size > 0) {
-            int randomPosition = StdRandom.uniformInt(size + 1);
-            SongNode currentNode = getSongNodeAtPosition(originalPlaylist, randomPosition);
-            if (currentNode != null) {
-                removeSongFromPlaylist(originalPlaylist, currentNode.getSong());
-                addSongToEndOfPlaylist(shuffledPlaylist, currentNode.getSong());
-                size--;
-            }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+        SongNode[] nodes = toArray(playlist);
+        WeightedShuffle.shuffle(nodes, random);
+        relink(playlist, nodes);
+    }
+
+    /**
+     * This method returns an endless radio over a specified playlist: 
+     * every song plays once per pass, more popular songs tending to come 
+     * earlier in each pass, and passes follow each other forever.
+     * 
+     * The songs are copied when this is called, so later edits to the 
+     * playlist do not change the radio.
+     * 
+     * @param playlistIndex the playlist index within the songLibrary
+     * @param random the source of randomness
+     * @return the radio, or null if there is no such playlist
+     */
+    public WeightedShuffle.Radio radio(int playlistIndex, RandomGenerator random) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return null;
         }
-    
-        songLibrary.set(playlistIndex, shuffledPlaylist);
+        return new WeightedShuffle.Radio(songLibrary.get(playlistIndex), random);
+    }
+
+    /*
+     * Shuffles a playlist in place; bound.applyAsInt(n) must return a 
+     * uniform int from 0 to n-1.
+     */
+    private void shuffle(int playlistIndex, IntUnaryOperator bound) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return;
+        }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+        SongNode[] nodes = toArray(playlist);
+        for (int i = nodes.length - 1; i > 0; i--) {
+            int j = bound.applyAsInt(i + 1);
+            SongNode temp = nodes[i];
+            nodes[i] = nodes[j];
+            nodes[j] = temp;
+        }
+        relink(playlist, nodes);
+    }
+
+    /*
+     * Returns the SongNodes of a playlist in order, first to last.
+     */
+    private static SongNode[] toArray(Playlist playlist) {
+        SongNode[] nodes = new SongNode[playlist.getSize()];
+        PlaylistCursor cursor = new PlaylistCursor(playlist);
+        while (cursor.hasNext()) {
+            nodes[cursor.position()] = cursor.nextNode();
+        }
+        return nodes;
+    }
+
+    /*
+     * Links the nodes into a circular linked list in array order and makes 
+     * it the contents of the playlist. Drops the playlist's song index.
+     */
+    private void relink(Playlist playlist, SongNode[] nodes) {
+        if (nodes.length == 0) {
+            return;
+        }
+        modifying(playlist);
+        for (int i = 0; i < nodes.length - 1; i++) {
+            nodes[i].setNext(nodes[i + 1]);
+        }
+        SongNode last = nodes[nodes.length - 1];
+        last.setNext(nodes[0]);
+        playlist.setLast(last);
+        songIndexes.remove(playlist);
     }
     
     private SongNode getSongNodeAtPosition(Playlist playlist, int position) {
         if (playlist.getSize() == 0 || position > playlist.getSize() || position <= 0) {
             return null;
         }
+
+        if (playlist instanceof IndexedPlaylist) {
+            return ((IndexedPlaylist) playlist).getNode(position);
+        }
+        if (playlist instanceof ReversiblePlaylist) {
+            return ((ReversiblePlaylist) playlist).getNode(position);
+        }
     
         SongNode current = playlist.getLast().getNext();
         for (int i = 1; i < position; i++) {
             current = current.getNext();
         }
+        hops(position - 1);
     
         return current;
     }
     
-    private void removeSongFromPlaylist(Playlist playlist, Song song) {
-        SongNode current = playlist.getLast();
-        for (int i = 0; i < playlist.getSize(); i++) {
-            if (current.getNext().getSong().equals(song)) {
-                if (current.getNext() == playlist.getLast()) {
-                    current.setNext(current.getNext().getNext());
-                    playlist.setLast(current);
-                } else {
-                    current.setNext(current.getNext().getNext());
-                }
-                playlist.setSize(playlist.getSize() - 1);
-                return;
-            }
-            current = current.getNext();
-        }
-    }
-    
-    private void addSongToEndOfPlaylist(Playlist playlist, Song song) {
-        SongNode newNode = new SongNode(song,   null);
-        if (playlist.getSize() == 0) {
-            newNode.setNext(newNode);
-            playlist.setLast(newNode);
-        } else {
-            newNode.setNext(playlist.getLast().getNext());
-            playlist.getLast().setNext(newNode);
-            playlist.setLast(newNode);
-        }
-        playlist.setSize(playlist.getSize() + 1);
-    }
-
     /**
      * This method sorts a specified playlist using linearithmic sort.
      * 
      * Set the playlist located at the corresponding playlistIndex
      * in decreasing popularity index order.
      * 
-     * This method should  use a sort that has O(nlogn), such as with merge sort.
+     * See sortPlaylist(int, Comparator).
      * 
-     * @param playlistIndex the playlist to shuffle
+     * @param playlistIndex the playlist to sort
      */
     public void sortPlaylist ( int playlistIndex ) {
+        sortPlaylist(playlistIndex, SongOrder.BY_POPULARITY);
+    }
 
-        // WRITE YOUR CODE HERE
-        
+    /**
+     * This method sorts a specified playlist in a given order.
+     * 
+     * The circular linked list is sorted in place by RingSort, a natural 
+     * bottom-up merge sort that relinks the existing SongNodes: it runs in 
+     * O(nlogn) time and constant extra space, keeps songs that compare 
+     * equal in their original order, and finishes in a single pass if the 
+     * playlist is already sorted. In fork-join mode (see setParallel()) 
+     * large playlists are sorted in parallel instead, also stably.
+     * 
+     * @param playlistIndex the playlist to sort
+     * @param order the order to sort in, such as SongOrder.BY_YEAR
+     */
+    public void sortPlaylist(int playlistIndex, Comparator<Song> order) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return;
+        }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+        modifying(playlist);
+        ForkJoinPool pool = parallelPool;
+        if (pool != null) {
+            playlist.setLast(ParallelRingSort.sort(playlist.getLast(), playlist.getSize(), order,
+                                                   pool, parallelThreshold));
+        } else {
+            playlist.setLast(RingSort.sort(playlist.getLast(), order));
+        }
+        songIndexes.remove(playlist);
     }
 
     /**
@@ -594,6 +1984,48 @@ private SongNode addSongToMerged(SongNode last, Song song) {
         } while (ptr != first || repeats > 0);
     }
 
+    /**
+     * Plays a playlist in the background through StdAudio and returns at 
+     * once. See playPlaylistAsync(int, int, PlaybackEngine).
+     * 
+     * @param playlistIndex the playlist to play
+     * @param repeats number of times to repeat playlist
+     * @return the engine playing the playlist, or null if there is no 
+     * playlist at that index
+     */
+    public PlaybackEngine playPlaylistAsync(int playlistIndex, int repeats) {
+        return playPlaylistAsync(playlistIndex, repeats, new PlaybackEngine());
+    }
+
+    /**
+     * Plays a playlist in the background on a PlaybackEngine and returns 
+     * at once.
+     * 
+     * Unlike playPlaylist(), the next songs are decoded while the current 
+     * one plays, so they follow each other without gaps, and songs with no 
+     * link are skipped without pausing. The songs are copied when playback 
+     * starts, so the playlist may be changed while it plays.
+     * 
+     * @param playlistIndex the playlist to play
+     * @param repeats number of times to repeat playlist
+     * @param engine the engine to play on
+     * @return the engine, or null if there is no playlist at that index
+     */
+    public PlaybackEngine playPlaylistAsync(int playlistIndex, int repeats, PlaybackEngine engine) {
+        if (songLibrary == null || playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return null;
+        }
+        Playlist playlist = songLibrary.get(playlistIndex);
+        List<Song> songs = new ArrayList<Song>(playlist.getSize());
+        SongNode current = playlist.getLast();
+        for (int i = 0; i < playlist.getSize(); i++) {
+            current = current.getNext();
+            songs.add(current.getSong());
+        }
+        engine.play(songs, repeats);
+        return engine;
+    }
+
     /**
      * ****DO NOT**** UPDATE THIS METHOD
      * Prints playlist by index; can use this method to debug.
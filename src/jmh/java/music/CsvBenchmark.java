@@ -0,0 +1,88 @@
+package music;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times reading a playlist csv of 1k to 1M rows with createPlaylist(), with
+ * a PlaylistReader on its own, and with the StdIn/split() loop
+ * createPlaylist() used to have.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class CsvBenchmark {
+
+    @Param({ "1000", "10000", "100000", "1000000" })
+    int rows;
+
+    Path file;
+    String filename;
+    PlaylistLibrary library;
+    PlaylistReader reader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("playlist", ".csv");
+        TestPlaylists.writeCsv(file, rows, new Random(rows));
+        filename = file.toString();
+        library = new PlaylistLibrary();
+        reader = new PlaylistReader();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public Playlist createPlaylist() {
+        return library.createPlaylist(filename);
+    }
+
+    @Benchmark
+    public Playlist reader() {
+        return reader.read(filename);
+    }
+
+    @Benchmark
+    public Playlist split() {
+        StdIn.setFile(filename);
+        SongNode lastSong = null;
+        int songCount = 0;
+        while (!StdIn.isEmpty()) {
+            String[] data = StdIn.readLine().split(",");
+            Song song = new Song(data[0], data[1], Integer.parseInt(data[2]), Integer.parseInt(data[3]), data[4]);
+            SongNode newSongNode = new SongNode(song, null);
+            if (lastSong == null) {
+                newSongNode.setNext(newSongNode);
+            } else {
+                newSongNode.setNext(lastSong.getNext());
+                lastSong.setNext(newSongNode);
+            }
+            lastSong = newSongNode;
+            songCount++;
+        }
+        return new Playlist(lastSong, songCount);
+    }
+}
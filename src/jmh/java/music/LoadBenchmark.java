@@ -0,0 +1,68 @@
+package music;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times loading 500 playlist files of 1,000 songs each with
+ * loadAllPlaylists() on 1, 2, 4 and 8 loader threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    private static final int FILES = 500;
+    private static final int ROWS_PER_FILE = 1_000;
+
+    @Param({ "1", "2", "4", "8" })
+    int threads;
+
+    Path directory;
+    String[] filenames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("playlists");
+        filenames = new String[FILES];
+        Random random = new Random(FILES);
+        for (int i = 0; i < FILES; i++) {
+            Path file = directory.resolve("playlist" + i + ".csv");
+            TestPlaylists.writeCsv(file, ROWS_PER_FILE, random);
+            filenames[i] = file.toString();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (String filename : filenames) {
+            Files.delete(Path.of(filename));
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public LoadReport loadAllPlaylists() {
+        return new PlaylistLibrary().loadAllPlaylists(filenames, threads);
+    }
+}
@@ -0,0 +1,80 @@
+package music;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the heap taken by a playlist as a SongNode ring and as a
+ * ColumnarPlaylist in a SongStore. The playlist holds size entries drawn
+ * from a smaller set of tracks, each entry with its own Strings, as when
+ * the same tracks are read from many csv files.
+ *
+ * The scores to read are the ringBytesPerSong and columnarBytesPerSong
+ * counters; the throughput includes the forced garbage collections.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class MemoryBenchmark {
+
+    @Param({ "1000000" })
+    int size;
+
+    @Param({ "100000" })
+    int tracks;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public double ringBytesPerSong;
+        public double columnarBytesPerSong;
+    }
+
+    @Benchmark
+    public ColumnarPlaylist footprint(Footprint footprint) {
+        long before = usedHeap();
+        Random random = new Random(size);
+        Song[] songs = new Song[size];
+        for (int i = 0; i < size; i++) {
+            int track = random.nextInt(tracks);
+            songs[i] = TestPlaylists.song(track, track % 101, new Random(track));
+        }
+        Playlist playlist = TestPlaylists.playlist(songs);
+        songs = null;
+        long ring = usedHeap() - before;
+
+        before = usedHeap();
+        SongStore store = new SongStore();
+        ColumnarPlaylist columnar = ColumnarPlaylist.of(playlist, store);
+        store.trimToSize();
+        playlist = null;
+        long columns = usedHeap() - before + ring;
+
+        footprint.ringBytesPerSong = (double) ring / size;
+        footprint.columnarBytesPerSong = (double) columns / size;
+        return columnar;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
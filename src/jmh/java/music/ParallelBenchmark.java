@@ -0,0 +1,108 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times sortPlaylist() and mergePlaylists() in fork-join mode on pools of
+ * 1 to 8 threads. Comparing the scores across pool sizes gives the
+ * speedup over one core.
+ *
+ * Each sort reorders the playlist by the other of two keys, so no run
+ * starts sorted. Each merge is given two fresh sorted halves.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParallelBenchmark {
+
+    @State(Scope.Thread)
+    public abstract static class Songs {
+
+        @Param({ "1000000", "10000000" })
+        int size;
+
+        @Param({ "1", "2", "4", "8" })
+        int cores;
+
+        ForkJoinPool pool;
+        PlaylistLibrary library;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            pool = new ForkJoinPool(cores);
+            library = TestPlaylists.library(size, new Random(size));
+            library.setParallel(pool, ParallelRingSort.DEFAULT_THRESHOLD);
+            built();
+        }
+
+        // called once the library is built, before any other setup
+        void built() {
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sorting extends Songs {
+        boolean byYear;
+    }
+
+    @State(Scope.Thread)
+    public static class Halves extends Songs {
+
+        Song[] firstHalf;
+        Song[] secondHalf;
+
+        @Override
+        void built() {
+            Song[] songs = TestPlaylists.toList(library.getPlaylists().get(0)).toArray(new Song[0]);
+            firstHalf = Arrays.copyOfRange(songs, 0, size / 2);
+            secondHalf = Arrays.copyOfRange(songs, size / 2, size);
+        }
+
+        @Setup(Level.Invocation)
+        public void link() {
+            ArrayList<Playlist> halves = new ArrayList<Playlist>();
+            halves.add(TestPlaylists.playlist(firstHalf));
+            halves.add(TestPlaylists.playlist(secondHalf));
+            library.setPlaylists(halves);
+        }
+    }
+
+    @Benchmark
+    public void sortPlaylist(Sorting songs, Blackhole blackhole) {
+        songs.byYear = !songs.byYear;
+        songs.library.sortPlaylist(0, songs.byYear ? SongOrder.BY_YEAR : SongOrder.BY_ARTIST);
+        blackhole.consume(songs.library.getPlaylists().get(0).getLast());
+    }
+
+    @Benchmark
+    public void mergePlaylists(Halves songs, Blackhole blackhole) {
+        songs.library.mergePlaylists(0, 1);
+        blackhole.consume(songs.library.getPlaylists().get(0).getLast());
+    }
+}
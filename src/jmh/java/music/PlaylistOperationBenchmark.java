@@ -0,0 +1,116 @@
+package music;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times the PlaylistLibrary operations on a whole playlist of 1k to 10M
+ * songs.
+ *
+ * sortPlaylist() is given a freshly shuffled playlist each call, and
+ * mergePlaylists() two fresh sorted halves; building them is not
+ * measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PlaylistOperationBenchmark {
+
+    @State(Scope.Thread)
+    public abstract static class Songs {
+
+        @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+        int size;
+
+        PlaylistLibrary library;
+        SplittableRandom random;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            library = TestPlaylists.library(size, new Random(size));
+            random = new SplittableRandom(size);
+            built();
+        }
+
+        // called once the library is built, before any other setup
+        void built() {
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Unchanged extends Songs {
+    }
+
+    @State(Scope.Thread)
+    public static class Shuffled extends Songs {
+        @Setup(Level.Invocation)
+        public void shuffle() {
+            library.shufflePlaylist(0, random);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Halves extends Songs {
+
+        Song[] firstHalf;
+        Song[] secondHalf;
+
+        @Override
+        void built() {
+            Song[] songs = TestPlaylists.toList(library.getPlaylists().get(0)).toArray(new Song[0]);
+            firstHalf = Arrays.copyOfRange(songs, 0, size / 2);
+            secondHalf = Arrays.copyOfRange(songs, size / 2, size);
+        }
+
+        @Setup(Level.Invocation)
+        public void link() {
+            ArrayList<Playlist> halves = new ArrayList<Playlist>();
+            halves.add(TestPlaylists.playlist(firstHalf));
+            halves.add(TestPlaylists.playlist(secondHalf));
+            library.setPlaylists(halves);
+        }
+    }
+
+    @Benchmark
+    public void reversePlaylist(Unchanged songs, Blackhole blackhole) {
+        songs.library.reversePlaylist(0);
+        blackhole.consume(songs.library.getPlaylists().get(0).getLast());
+    }
+
+    @Benchmark
+    public void shufflePlaylist(Unchanged songs, Blackhole blackhole) {
+        songs.library.shufflePlaylist(0, songs.random);
+        blackhole.consume(songs.library.getPlaylists().get(0).getLast());
+    }
+
+    @Benchmark
+    public void sortPlaylist(Shuffled songs, Blackhole blackhole) {
+        songs.library.sortPlaylist(0);
+        blackhole.consume(songs.library.getPlaylists().get(0).getLast());
+    }
+
+    @Benchmark
+    public void mergePlaylists(Halves songs, Blackhole blackhole) {
+        songs.library.mergePlaylists(0, 1);
+        blackhole.consume(songs.library.getPlaylists().get(0).getLast());
+    }
+}
@@ -0,0 +1,97 @@
+package music;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a ConcurrentPlaylistLibrary, where readers take a read lock
+ * and walk the ring, with a VersionedPlaylist, where readers walk an
+ * immutable snapshot, under a mix of reads and writes from four threads.
+ * A read sums the popularity of every song; a write inserts a song at a
+ * random position, then removes one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class SnapshotBenchmark {
+
+    @Param({ "10000" })
+    int size;
+
+    @Param({ "50", "90", "99" })
+    int readPercent;
+
+    ConcurrentPlaylistLibrary locked;
+    VersionedPlaylist versioned;
+    Song[] pool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        locked = new ConcurrentPlaylistLibrary(TestPlaylists.library(size, new Random(size)).getPlaylists());
+        locked.setIndexed(true);
+        versioned = new VersionedPlaylist(locked.snapshot(0));
+        Random songs = new Random(0);
+        pool = new Song[1024];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = TestPlaylists.song(i, 50, songs);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        SplittableRandom random = new SplittableRandom();
+    }
+
+    @Benchmark
+    public long locked(ThreadRandom thread) {
+        SplittableRandom random = thread.random;
+        if (random.nextInt(100) < readPercent) {
+            return locked.read(0, playlist -> {
+                long sum = 0;
+                SongNode current = playlist.getLast();
+                for (int i = 0; i < playlist.getSize(); i++) {
+                    current = current.getNext();
+                    sum += current.getSong().getPopularity();
+                }
+                return sum;
+            });
+        }
+        locked.insertSong(0, 1 + random.nextInt(size), pool[random.nextInt(pool.length)]);
+        locked.removeSongAt(0, 1 + random.nextInt(size));
+        return 0;
+    }
+
+    @Benchmark
+    public long versioned(ThreadRandom thread) {
+        SplittableRandom random = thread.random;
+        if (random.nextInt(100) < readPercent) {
+            long[] sum = { 0 };
+            versioned.snapshot().forEach(song -> sum[0] += song.getPopularity());
+            return sum[0];
+        }
+        int insertAt = 1 + random.nextInt(size);
+        int removeAt = 1 + random.nextInt(size);
+        Song song = pool[random.nextInt(pool.length)];
+        versioned.update(playlist -> playlist.insert(insertAt, song).remove(removeAt));
+        return 0;
+    }
+}
@@ -0,0 +1,96 @@
+package music;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the PlaylistLibrary operations on one song of a playlist of 1k to
+ * 10M songs, at the head, middle and tail of the playlist.
+ *
+ * Each edit is undone after the call, outside the measurement, so every
+ * call sees the same playlist.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SongOperationBenchmark {
+
+    @State(Scope.Thread)
+    public abstract static class Songs {
+
+        @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+        int size;
+
+        @Param({ "head", "middle", "tail" })
+        String position;
+
+        PlaylistLibrary library;
+        int at;
+        Song extra;
+        Song target;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            library = TestPlaylists.library(size, new Random(size));
+            at = position.equals("head") ? 1 : position.equals("middle") ? size / 2 : size;
+            extra = TestPlaylists.song(size, 0, new Random(size));
+            target = library.getSong(0, at);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Unchanged extends Songs {
+    }
+
+    @State(Scope.Thread)
+    public static class Inserting extends Songs {
+        @TearDown(Level.Invocation)
+        public void removeInserted() {
+            library.removeSongAt(0, at);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Removing extends Songs {
+        @TearDown(Level.Invocation)
+        public void putBackRemoved() {
+            library.insertSong(0, at, target);
+        }
+    }
+
+    @Benchmark
+    public Song getSong(Unchanged songs) {
+        return songs.library.getSong(0, songs.at);
+    }
+
+    @Benchmark
+    public boolean insertSong(Inserting songs) {
+        return songs.library.insertSong(0, songs.at, songs.extra);
+    }
+
+    @Benchmark
+    public Song removeSongAt(Removing songs) {
+        return songs.library.removeSongAt(0, songs.at);
+    }
+
+    @Benchmark
+    public boolean removeSong(Removing songs) {
+        return songs.library.removeSong(0, songs.target);
+    }
+}
@@ -0,0 +1,219 @@
+package music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Stress tests for ConcurrentPlaylistLibrary: many threads edit and read
+ * the library at once, and every ring and published version is checked
+ * while they run and again once they are done.
+ */
+class ConcurrentPlaylistLibraryTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS = 5_000;
+    private static final int PLAYLISTS = 16;
+    private static final int SONGS = 200;
+
+    @TempDir
+    Path directory;
+
+    /*
+     * Inserts, removes, reverses, shuffles and sorts songs, and adds and
+     * removes playlists, so indices shift under the other threads.
+     */
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void survivesMixedEditsOfSongsAndPlaylists(boolean songIndexed) throws Exception {
+        Path csv = directory.resolve("playlist.csv");
+        TestPlaylists.writeCsv(csv, SONGS, new Random(0));
+        String filename = csv.toString();
+        ConcurrentPlaylistLibrary library = library();
+        library.setSongIndexed(songIndexed);
+        AtomicInteger playlistCount = new AtomicInteger(PLAYLISTS);
+
+        run(library, (random, pool) -> {
+            int index = random.nextInt(PLAYLISTS + PLAYLISTS / 2);
+            Integer size = library.read(index, Playlist::getSize);
+            int length = (size == null) ? 0 : size;
+            switch (random.nextInt(10)) {
+                case 0:
+                case 1:
+                    library.insertSong(index, 1 + random.nextInt(length + 1), pool[random.nextInt(pool.length)]);
+                    break;
+                case 2:
+                    library.removeSongAt(index, 1 + random.nextInt(length + 1));
+                    break;
+                case 3:
+                    library.removeSong(index, pool[random.nextInt(pool.length)]);
+                    break;
+                case 4:
+                    library.reversePlaylist(index);
+                    break;
+                case 5:
+                    library.shufflePlaylist(index, new SplittableRandom(random.nextLong()));
+                    break;
+                case 6:
+                    library.sortPlaylist(index, SongOrder.BY_YEAR);
+                    break;
+                case 7:
+                    if (random.nextInt(8) == 0) {
+                        library.addPlaylist(filename, index);
+                        playlistCount.incrementAndGet();
+                    }
+                    break;
+                case 8:
+                    if (random.nextInt(8) == 0 && library.removePlaylist(index)) {
+                        playlistCount.decrementAndGet();
+                    }
+                    break;
+                default:
+                    checkWhileRunning(library, index);
+                    break;
+            }
+        });
+
+        assertEquals(playlistCount.get(), library.getPlaylists().size());
+        checkEveryPlaylist(library);
+    }
+
+    /*
+     * Only edits songs, so the number of songs in the library can be
+     * worked out from the edits that succeeded.
+     */
+    @ParameterizedTest
+    @ValueSource(booleans = { false, true })
+    void keepsCountOfSongsUnderContention(boolean songIndexed) throws Exception {
+        ConcurrentPlaylistLibrary library = library();
+        library.setSongIndexed(songIndexed);
+        AtomicLong songs = new AtomicLong((long) PLAYLISTS * SONGS);
+
+        run(library, (random, pool) -> {
+            int index = random.nextInt(PLAYLISTS);
+            int length = library.read(index, Playlist::getSize);
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    if (library.insertSong(index, 1 + random.nextInt(length + 1), pool[random.nextInt(pool.length)])) {
+                        songs.incrementAndGet();
+                    }
+                    break;
+                case 2:
+                    if (library.removeSongAt(index, 1 + random.nextInt(length + 1)) != null) {
+                        songs.decrementAndGet();
+                    }
+                    break;
+                case 3:
+                    if (library.removeSong(index, pool[random.nextInt(pool.length)])) {
+                        songs.decrementAndGet();
+                    }
+                    break;
+                case 4:
+                    library.reversePlaylist(index);
+                    break;
+                default:
+                    checkWhileRunning(library, index);
+                    break;
+            }
+        });
+
+        long total = 0;
+        for (Playlist playlist : library.getPlaylists()) {
+            total += playlist.getSize();
+        }
+        assertEquals(songs.get(), total);
+        checkEveryPlaylist(library);
+    }
+
+    /**
+     * One step of a worker thread.
+     */
+    private interface Step {
+        void run(Random random, Song[] pool) throws Exception;
+    }
+
+    /*
+     * Runs OPERATIONS steps on each of THREADS threads, and rethrows the
+     * first failure of any of them.
+     */
+    private static void run(ConcurrentPlaylistLibrary library, Step step) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < THREADS; t++) {
+                Random random = new Random(t);
+                Song[] pool = TestPlaylists.songs(SONGS, new Random(t % 2));
+                workers.add(() -> {
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        step.run(random, pool);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> worker : executor.invokeAll(workers)) {
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Checks a playlist under its read lock, and its published version
+     * without any lock, while other threads edit the library.
+     */
+    private static void checkWhileRunning(ConcurrentPlaylistLibrary library, int index) {
+        assertNull(library.read(index, TestPlaylists::checkRing));
+        PersistentPlaylist version = library.snapshot(index);
+        if (version != null) {
+            assertEquals(version.size(), version.toArray().length);
+        }
+    }
+
+    /*
+     * Checks that every ring is closed after getSize() nodes, and that the
+     * published version of every playlist holds the same songs.
+     */
+    private static void checkEveryPlaylist(ConcurrentPlaylistLibrary library) {
+        ArrayList<Playlist> playlists = library.getPlaylists();
+        for (int i = 0; i < playlists.size(); i++) {
+            Playlist playlist = playlists.get(i);
+            assertNull(TestPlaylists.checkRing(playlist), "playlist " + i);
+            PersistentPlaylist version = library.snapshot(i);
+            assertEquals(playlist.getSize(), version.size(), "playlist " + i);
+            assertEquals(TestPlaylists.toList(playlist), List.of(version.toArray()), "playlist " + i);
+        }
+    }
+
+    private static ConcurrentPlaylistLibrary library() {
+        ArrayList<Playlist> playlists = new ArrayList<Playlist>();
+        for (int i = 0; i < PLAYLISTS; i++) {
+            playlists.add(TestPlaylists.playlist(TestPlaylists.songs(SONGS, new Random(i % 2))));
+        }
+        return new ConcurrentPlaylistLibrary(playlists);
+    }
+}
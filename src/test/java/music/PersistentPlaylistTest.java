@@ -0,0 +1,134 @@
+package music;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class PersistentPlaylistTest {
+
+    @Test
+    void copiesAPlaylistInOrder() {
+        Song[] songs = TestPlaylists.songs(100, new Random(1));
+        PersistentPlaylist playlist = PersistentPlaylist.of(TestPlaylists.playlist(songs));
+
+        assertEquals(100, playlist.size());
+        assertArrayEquals(songs, playlist.toArray());
+        assertEquals(List.of(songs), TestPlaylists.toList(playlist.toPlaylist()));
+    }
+
+    @Test
+    void positionsStartAtOne() {
+        Song[] songs = TestPlaylists.songs(3, new Random(2));
+        PersistentPlaylist playlist = PersistentPlaylist.of(songs);
+
+        assertSame(songs[0], playlist.get(1));
+        assertSame(songs[2], playlist.get(3));
+        assertNull(playlist.get(0));
+        assertNull(playlist.get(4));
+        assertSame(playlist, playlist.insert(5, songs[0]));
+        assertSame(playlist, playlist.remove(0));
+        assertSame(playlist, playlist.remove(4));
+    }
+
+    @Test
+    void editsLeaveOldVersionsUnchanged() {
+        Song[] songs = TestPlaylists.songs(50, new Random(3));
+        PersistentPlaylist original = PersistentPlaylist.of(songs);
+        Song extra = TestPlaylists.song(50, 0, new Random(3));
+
+        PersistentPlaylist inserted = original.insert(26, extra);
+        PersistentPlaylist removed = inserted.remove(1);
+        PersistentPlaylist reversed = removed.reversed();
+
+        assertArrayEquals(songs, original.toArray());
+        assertEquals(51, inserted.size());
+        assertSame(extra, inserted.get(26));
+        assertEquals(50, removed.size());
+        assertSame(songs[1], removed.get(1));
+        assertSame(songs[1], reversed.get(50));
+    }
+
+    @Test
+    void reversingTwiceGivesTheOriginalOrder() {
+        Song[] songs = TestPlaylists.songs(20, new Random(4));
+        PersistentPlaylist playlist = PersistentPlaylist.of(songs);
+
+        List<Song> expected = new ArrayList<Song>(List.of(songs));
+        Collections.reverse(expected);
+        assertEquals(expected, List.of(playlist.reversed().toArray()));
+        assertArrayEquals(songs, playlist.reversed().reversed().toArray());
+        assertSame(PersistentPlaylist.EMPTY, PersistentPlaylist.EMPTY.reversed());
+    }
+
+    @Test
+    void removesTheLastSongIfItMatchesOtherwiseTheFirstCopy() {
+        Song[] songs = TestPlaylists.songs(3, new Random(5));
+        Song a = songs[0];
+        Song b = songs[1];
+        Song c = songs[2];
+
+        PersistentPlaylist playlist = PersistentPlaylist.of(new Song[] { a, b, a, c, a });
+        assertArrayEquals(new Song[] { a, b, a, c }, playlist.remove(a).toArray());
+        assertArrayEquals(new Song[] { a, a, c, a }, playlist.remove(b).toArray());
+
+        PersistentPlaylist ending = PersistentPlaylist.of(new Song[] { b, a, c, a, c });
+        assertArrayEquals(new Song[] { b, c, a, c }, ending.remove(a).toArray());
+        assertArrayEquals(new Song[] { c, c, a, b }, ending.reversed().remove(a).toArray());
+        assertSame(ending, ending.remove(TestPlaylists.song(99, 0, new Random(5))));
+    }
+
+    /*
+     * Applies random inserts, removes and reversals to a playlist and to
+     * an ArrayList, and checks after each one that they hold the same
+     * songs.
+     */
+    @Test
+    void matchesAListUnderRandomEdits() {
+        Random random = new Random(6);
+        Song[] pool = TestPlaylists.songs(64, random);
+        List<Song> expected = new ArrayList<Song>();
+        PersistentPlaylist playlist = PersistentPlaylist.EMPTY;
+
+        for (int i = 0; i < 5_000; i++) {
+            int size = expected.size();
+            int choice = random.nextInt(10);
+            if (choice < 5) {
+                int position = 1 + random.nextInt(size + 1);
+                Song song = pool[random.nextInt(pool.length)];
+                expected.add(position - 1, song);
+                playlist = playlist.insert(position, song);
+            } else if (choice < 7 && size > 0) {
+                int position = 1 + random.nextInt(size);
+                expected.remove(position - 1);
+                playlist = playlist.remove(position);
+            } else if (choice < 9) {
+                Song song = pool[random.nextInt(pool.length)];
+                if (size > 0 && song.equals(expected.get(size - 1))) {
+                    expected.remove(size - 1);
+                } else {
+                    expected.remove(song);
+                }
+                playlist = playlist.remove(song);
+            } else {
+                Collections.reverse(expected);
+                playlist = playlist.reversed();
+            }
+
+            assertEquals(expected.size(), playlist.size());
+            if (size > 0) {
+                int position = 1 + random.nextInt(expected.size() + 1);
+                assertEquals(position <= expected.size() ? expected.get(position - 1) : null,
+                             playlist.get(position));
+            }
+        }
+        assertEquals(expected, List.of(playlist.toArray()));
+    }
+}
@@ -0,0 +1,112 @@
+package music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class PlaylistBatchTest {
+
+    @Test
+    void recordsItsEditsInOrder() {
+        Song[] songs = TestPlaylists.songs(2, new Random(1));
+        PlaylistBatch batch = new PlaylistBatch().insert(3, songs[0]).remove(songs[1]);
+
+        assertEquals(2, batch.size());
+        assertTrue(batch.isInsert(0));
+        assertEquals(3, batch.getPosition(0));
+        assertEquals(songs[0], batch.getSong(0));
+        assertFalse(batch.isInsert(1));
+        assertEquals(0, batch.getPosition(1));
+        assertEquals(songs[1], batch.getSong(1));
+    }
+
+    @Test
+    void canEmptyAPlaylistAndFillItAgain() {
+        Song[] songs = TestPlaylists.songs(3, new Random(2));
+        PlaylistLibrary library = library(songs[0], songs[1]);
+
+        PlaylistBatch batch = new PlaylistBatch().remove(songs[0]).remove(songs[1]);
+        assertTrue(library.applyBatch(0, batch));
+        assertEquals(0, library.getPlaylists().get(0).getSize());
+        assertEquals(null, library.getPlaylists().get(0).getLast());
+
+        assertTrue(library.applyBatch(0, new PlaylistBatch().insert(1, songs[2]).insert(1, songs[0])));
+        assertEquals(List.of(songs[0], songs[2]), TestPlaylists.toList(library.getPlaylists().get(0)));
+    }
+
+    @Test
+    void failedBatchLeavesThePlaylistUnchanged() {
+        Song[] songs = TestPlaylists.songs(4, new Random(3));
+        PlaylistLibrary library = library(songs[0], songs[1], songs[2]);
+        List<Song> before = TestPlaylists.toList(library.getPlaylists().get(0));
+
+        assertFalse(library.applyBatch(0, new PlaylistBatch().insert(1, songs[3]).insert(6, songs[3])));
+        assertFalse(library.applyBatch(0, new PlaylistBatch().remove(songs[0]).remove(songs[0])));
+        assertFalse(library.applyBatch(0, new PlaylistBatch().remove(songs[3])));
+        assertFalse(library.applyBatch(1, new PlaylistBatch().insert(1, songs[3])));
+
+        Playlist playlist = library.getPlaylists().get(0);
+        assertEquals(3, playlist.getSize());
+        assertEquals(before, TestPlaylists.toList(playlist));
+    }
+
+    /*
+     * Applies random batches to one library and the same edits one call
+     * at a time to another, and checks that the playlists stay equal.
+     */
+    @Test
+    void matchesTheSameEditsOneAtATime() {
+        Random random = new Random(4);
+        Song[] pool = TestPlaylists.songs(32, random);
+        PlaylistLibrary batched = library(pool);
+        PlaylistLibrary sequential = library(pool);
+
+        for (int round = 0; round < 500; round++) {
+            PlaylistBatch batch = new PlaylistBatch();
+            List<Song> model = TestPlaylists.toList(sequential.getPlaylists().get(0));
+            boolean valid = true;
+            for (int i = random.nextInt(20); i > 0; i--) {
+                Song song = pool[random.nextInt(pool.length)];
+                if (random.nextBoolean()) {
+                    int position = 1 + random.nextInt(model.size() + 2);
+                    batch.insert(position, song);
+                    if (position > model.size() + 1) {
+                        valid = false;
+                    } else {
+                        model.add(position - 1, song);
+                    }
+                } else {
+                    batch.remove(song);
+                    valid &= model.remove(song);
+                }
+            }
+
+            assertEquals(valid, batched.applyBatch(0, batch));
+            if (valid) {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (batch.isInsert(i)) {
+                        assertTrue(sequential.insertSong(0, batch.getPosition(i), batch.getSong(i)));
+                    } else {
+                        assertTrue(sequential.removeSong(0, batch.getSong(i)));
+                    }
+                }
+            }
+            Playlist expected = sequential.getPlaylists().get(0);
+            Playlist actual = batched.getPlaylists().get(0);
+            assertEquals(expected.getSize(), actual.getSize());
+            assertEquals(TestPlaylists.toList(expected), TestPlaylists.toList(actual));
+        }
+    }
+
+    private static PlaylistLibrary library(Song... songs) {
+        ArrayList<Playlist> playlists = new ArrayList<Playlist>();
+        playlists.add(TestPlaylists.playlist(songs));
+        return new PlaylistLibrary(playlists);
+    }
+}
@@ -0,0 +1,171 @@
+package music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlaylistJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysRecordsInOrderAfterReopening() {
+        Path file = directory.resolve("journal-0.log");
+        for (PlaylistJournal.Durability durability : PlaylistJournal.Durability.values()) {
+            PlaylistJournal journal = new PlaylistJournal(file, 0, durability, 4, 10);
+            for (int i = 0; i < 10; i++) {
+                byte[] record = ("record " + i).getBytes(StandardCharsets.UTF_8);
+                journal.append(record, record.length);
+            }
+            journal.close();
+
+            assertEquals(List.of("record 0", "record 1", "record 2", "record 3", "record 4", "record 5",
+                                 "record 6", "record 7", "record 8", "record 9"),
+                         replay(new PlaylistJournal(file, 0, durability, 4, 10)));
+            assertTrue(file.toFile().delete());
+        }
+    }
+
+    @Test
+    void cutsOffATornRecord() throws IOException {
+        Path file = directory.resolve("journal-0.log");
+        PlaylistJournal journal = new PlaylistJournal(file, 0, PlaylistJournal.Durability.EVERY_OP, 1, 10);
+        byte[] record = "complete".getBytes(StandardCharsets.UTF_8);
+        journal.append(record, record.length);
+        long complete = journal.getSize();
+        journal.append(record, record.length);
+        journal.close();
+
+        // drop the last byte of the second record, as a crash mid-write would
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        PlaylistJournal reopened = new PlaylistJournal(file, 0, PlaylistJournal.Durability.EVERY_OP, 1, 10);
+        assertEquals(List.of("complete"), replay(reopened));
+        assertEquals(complete, reopened.getSize());
+        assertEquals(complete, Files.size(file));
+        reopened.close();
+    }
+
+    @Test
+    void stopsAtARecordWithABadChecksum() throws IOException {
+        Path file = directory.resolve("journal-0.log");
+        PlaylistJournal journal = new PlaylistJournal(file, 0, PlaylistJournal.Durability.OS, 1, 10);
+        for (String text : new String[] { "first", "second", "third" }) {
+            byte[] record = text.getBytes(StandardCharsets.UTF_8);
+            journal.append(record, record.length);
+        }
+        journal.close();
+
+        // flip a byte of "second"
+        long offset = 16 + 8 + "first".length() + 8;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 'S' }), offset);
+        }
+
+        PlaylistJournal reopened = new PlaylistJournal(file, 0, PlaylistJournal.Durability.OS, 1, 10);
+        assertEquals(List.of("first"), replay(reopened));
+        reopened.close();
+    }
+
+    @Test
+    void rejectsAJournalOfAnotherGeneration() {
+        Path file = directory.resolve("journal-3.log");
+        new PlaylistJournal(file, 3, PlaylistJournal.Durability.OS, 1, 10).close();
+
+        assertThrows(IllegalArgumentException.class,
+                     () -> new PlaylistJournal(file, 4, PlaylistJournal.Durability.OS, 1, 10));
+    }
+
+    /*
+     * Makes every kind of change to a journaled library, across a
+     * compaction, then checks that reopening the directory recovers the
+     * same playlists.
+     */
+    @Test
+    void libraryRecoversEveryChange() throws IOException {
+        Path csv = directory.resolve("playlist.csv");
+        TestPlaylists.writeCsv(csv, 40, new Random(1));
+        String library = directory.resolve("library").toString();
+        Random random = new Random(2);
+
+        JournaledPlaylistLibrary journaled = new JournaledPlaylistLibrary(library, PlaylistJournal.Durability.GROUP);
+        journaled.addPlaylist(csv.toString(), 0);
+        journaled.addPlaylist(csv.toString(), 1);
+        journaled.addPlaylist(csv.toString(), 2);
+        journaled.insertSong(0, 3, TestPlaylists.song(100, 5, random));
+        journaled.removeSong(0, journaled.getSong(0, 10));
+        journaled.removeSongAt(1, 1);
+        journaled.reversePlaylist(1);
+        journaled.shufflePlaylist(2, new SplittableRandom(3));
+        journaled.compact();
+        journaled.sortPlaylist(0, SongOrder.BY_ARTIST);
+        journaled.applyBatch(2, new PlaylistBatch().insert(1, TestPlaylists.song(101, 7, random))
+                                                   .remove(journaled.getSong(2, 5)));
+        journaled.weightedShufflePlaylist(1, new SplittableRandom(4));
+        journaled.mergePlaylists(0, 2);
+        journaled.removePlaylist(1);
+        List<List<Song>> expected = playlists(journaled);
+        journaled.close();
+
+        JournaledPlaylistLibrary recovered = new JournaledPlaylistLibrary(library, PlaylistJournal.Durability.GROUP);
+        assertEquals(expected, playlists(recovered));
+        recovered.close();
+    }
+
+    @Test
+    void libraryDropsAChangeTornByACrash() throws IOException {
+        Path csv = directory.resolve("playlist.csv");
+        TestPlaylists.writeCsv(csv, 10, new Random(1));
+        String library = directory.resolve("library").toString();
+
+        JournaledPlaylistLibrary journaled = new JournaledPlaylistLibrary(library, PlaylistJournal.Durability.EVERY_OP);
+        journaled.addPlaylist(csv.toString(), 0);
+        journaled.reversePlaylist(0);
+        List<List<Song>> expected = playlists(journaled);
+        journaled.insertSong(0, 1, TestPlaylists.song(100, 5, new Random(2)));
+        Path file = journaled.getJournal().getFile();
+        journaled.close();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        JournaledPlaylistLibrary recovered = new JournaledPlaylistLibrary(library, PlaylistJournal.Durability.EVERY_OP);
+        assertEquals(expected, playlists(recovered));
+        assertEquals(10, recovered.getPlaylists().get(0).getSize());
+        recovered.close();
+    }
+
+    private static List<String> replay(PlaylistJournal journal) {
+        List<String> records = new ArrayList<String>();
+        journal.replay(record -> records.add(StandardCharsets.UTF_8.decode(record).toString()));
+        journal.close();
+        return records;
+    }
+
+    private static List<List<Song>> playlists(PlaylistLibrary library) {
+        List<List<Song>> playlists = new ArrayList<List<Song>>();
+        for (Playlist playlist : library.getPlaylists()) {
+            playlists.add(TestPlaylists.toList(playlist));
+        }
+        return playlists;
+    }
+}
@@ -0,0 +1,137 @@
+package music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PlaylistReaderTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<String> errors = new ArrayList<String>();
+    private final PlaylistReader reader =
+        new PlaylistReader((filename, lineNumber, reason) -> errors.add(lineNumber + ": " + reason));
+
+    @Test
+    void readsEveryRowInOrder() throws IOException {
+        Path file = directory.resolve("playlist.csv");
+        TestPlaylists.writeCsv(file, 1_000, new Random(1));
+
+        Playlist playlist = reader.read(file.toString());
+
+        assertEquals(1_000, playlist.getSize());
+        assertEquals(Files.size(file), reader.getBytesRead());
+        List<Song> songs = TestPlaylists.toList(playlist);
+        assertEquals(1_000, songs.size());
+        for (int i = 0; i < songs.size(); i++) {
+            assertEquals("Song " + i, songs.get(i).getName());
+            assertEquals("https://example.com/" + i + ".wav", songs.get(i).getLink());
+        }
+        assertEquals(List.of(), errors);
+    }
+
+    @Test
+    void readsAnEmptyFileAsAnEmptyPlaylist() throws IOException {
+        Playlist playlist = read("");
+
+        assertNull(playlist.getLast());
+        assertEquals(0, playlist.getSize());
+    }
+
+    @Test
+    void handlesLineEndingsBlankLinesAndAByteOrderMark() throws IOException {
+        Playlist playlist = read("\uFEFFOne,A,2001,50,one.wav\r\n\r\n  \nTwo,B,2002,60,two.wav");
+
+        assertEquals(List.of(new Song("One", "A", 2001, 50, "one.wav"), new Song("Two", "B", 2002, 60, "two.wav")),
+                     TestPlaylists.toList(playlist));
+        assertEquals(List.of(), errors);
+    }
+
+    @Test
+    void unquotesQuotedFields() throws IOException {
+        Playlist playlist = read("\"Hello, Goodbye\",\"The \"\"Fab\"\" Four\",\" 1967 \",\"85\",\"\"\n"
+                                 + "\"Line\nBreak\",Artist,1999,10,link\n");
+
+        assertEquals(List.of(new Song("Hello, Goodbye", "The \"Fab\" Four", 1967, 85, null),
+                             new Song("Line\nBreak", "Artist", 1999, 10, "link")),
+                     TestPlaylists.toList(playlist));
+        assertEquals(List.of(), errors);
+    }
+
+    @Test
+    void keepsQuotesInsideUnquotedFields() throws IOException {
+        Playlist playlist = read("7\" Single,Artist,1980,40,a.wav\n"
+                                 + "Say \"Hi\",Band,1990,30,b.wav\n");
+
+        assertEquals(List.of(new Song("7\" Single", "Artist", 1980, 40, "a.wav"),
+                             new Song("Say \"Hi\"", "Band", 1990, 30, "b.wav")),
+                     TestPlaylists.toList(playlist));
+        assertEquals(List.of(), errors);
+    }
+
+    @Test
+    void reportsAndSkipsMalformedRows() throws IOException {
+        Playlist playlist = read("Good,A,2000,1,a\n"
+                                 + "Short,A,2000,1\n"
+                                 + "Long,A,2000,1,a,extra\n"
+                                 + "Year,A,twenty,1,a\n"
+                                 + "Popularity,A,2000,99999999999,a\n"
+                                 + "Also good,B, 2001 ,-2,b\n"
+                                 + "\"Unterminated,A,2000,1,a");
+
+        assertEquals(List.of(new Song("Good", "A", 2000, 1, "a"), new Song("Also good", "B", 2001, -2, "b")),
+                     TestPlaylists.toList(playlist));
+        assertEquals(5, reader.getMalformedRows());
+        assertEquals(List.of("2: expected 5 fields but found 4",
+                             "3: more than 5 fields",
+                             "4: year is not an integer",
+                             "5: popularity is not an integer",
+                             "7: unterminated quoted field"),
+                     errors);
+    }
+
+    @Test
+    void readsRowsLongerThanItsBuffers() throws IOException {
+        String name = "x".repeat(200_000);
+        Playlist playlist = read("Short,A,2000,1,a\n" + name + ",B,2001,2,b\nEnd,C,2002,3,c\n");
+
+        List<Song> songs = TestPlaylists.toList(playlist);
+        assertEquals(3, songs.size());
+        assertEquals(name, songs.get(1).getName());
+        assertEquals("End", songs.get(2).getName());
+    }
+
+    @Test
+    void sharesEqualSongsThroughARegistry() throws IOException {
+        reader.setRegistry(new SongRegistry());
+        Playlist first = read("One,A,2001,50,one.wav\n");
+        Playlist second = read("One,A,2001,50,one.wav\n");
+
+        assertSame(first.getLast().getSong(), second.getLast().getSong());
+    }
+
+    @Test
+    void failsOnAMissingFile() {
+        assertThrows(IllegalArgumentException.class,
+                     () -> reader.read(directory.resolve("missing.csv").toString()));
+    }
+
+    private Playlist read(String contents) throws IOException {
+        Path file = Files.createTempFile(directory, "playlist", ".csv");
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return reader.read(file.toString());
+    }
+}
@@ -0,0 +1,144 @@
+package music;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic songs, playlists and csv files for the tests and benchmarks.
+ */
+final class TestPlaylists {
+
+    private TestPlaylists() {
+    }
+
+    /**
+     * Generates a synthetic song.
+     *
+     * @param i the song number
+     * @param popularity the song popularity
+     * @param random source of the other song fields
+     * @return the song
+     */
+    static Song song(int i, int popularity, Random random) {
+        return new Song("Song " + i, "Artist " + random.nextInt(1000), 1950 + random.nextInt(75),
+                popularity, "https://example.com/" + i + ".wav");
+    }
+
+    /**
+     * Generates songs in decreasing popularity order.
+     *
+     * @param size number of songs
+     * @param random source of the song fields
+     * @return the songs
+     */
+    static Song[] songs(int size, Random random) {
+        Song[] songs = new Song[size];
+        for (int i = 0; i < size; i++) {
+            songs[i] = song(i, 100 - (int) (100L * i / size), random);
+        }
+        return songs;
+    }
+
+    /**
+     * Links songs into a new circular playlist.
+     *
+     * @param songs the songs, first to last
+     * @return the playlist
+     */
+    static Playlist playlist(Song... songs) {
+        SongNode last = null;
+        for (Song song : songs) {
+            SongNode node = new SongNode(song, null);
+            if (last == null) {
+                node.setNext(node);
+            } else {
+                node.setNext(last.getNext());
+                last.setNext(node);
+            }
+            last = node;
+        }
+        return new Playlist(last, songs.length);
+    }
+
+    /**
+     * Generates a library holding one playlist of songs in decreasing
+     * popularity order.
+     *
+     * @param size number of songs
+     * @param random source of the song fields
+     * @return the library
+     */
+    static PlaylistLibrary library(int size, Random random) {
+        ArrayList<Playlist> playlists = new ArrayList<Playlist>();
+        playlists.add(playlist(songs(size, random)));
+        return new PlaylistLibrary(playlists);
+    }
+
+    /**
+     * @param playlist a playlist
+     * @return the songs of the playlist, first to last
+     */
+    static List<Song> toList(Playlist playlist) {
+        ArrayList<Song> songs = new ArrayList<Song>();
+        if (playlist.getLast() == null) {
+            return songs;
+        }
+        SongNode current = playlist.getLast();
+        do {
+            current = current.getNext();
+            songs.add(current.getSong());
+        } while (current != playlist.getLast());
+        return songs;
+    }
+
+    /**
+     * Checks that a playlist is a well formed circular linked list of
+     * getSize() nodes.
+     *
+     * @param playlist the playlist to check
+     * @return a description of the problem, or null if there is none
+     */
+    static String checkRing(Playlist playlist) {
+        SongNode last = playlist.getLast();
+        int size = playlist.getSize();
+        if (last == null) {
+            return (size == 0) ? null : "null last with size " + size;
+        }
+        SongNode current = last;
+        for (int i = 0; i < size; i++) {
+            current = current.getNext();
+            if (current == null) {
+                return "null next at position " + (i + 1);
+            }
+            if (current == last && i != size - 1) {
+                return "ring of " + (i + 1) + " nodes but size " + size;
+            }
+        }
+        return (current == last) ? null : "ring longer than size " + size;
+    }
+
+    /**
+     * Writes a synthetic playlist csv in decreasing popularity order.
+     *
+     * @param file where to write
+     * @param rows number of songs
+     * @param random source of the song fields
+     * @throws IOException if the file cannot be written
+     */
+    static void writeCsv(Path file, int rows, Random random) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                int popularity = 100 - (int) (100L * i / rows);
+                out.write("Song " + i + ",Artist " + random.nextInt(rows / 10 + 1) + ","
+                        + (1950 + random.nextInt(75)) + "," + popularity
+                        + ",https://example.com/" + i + ".wav\n");
+            }
+        }
+    }
+}